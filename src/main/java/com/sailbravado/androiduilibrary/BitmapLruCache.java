@@ -0,0 +1,105 @@
+package com.sailbravado.androiduilibrary;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A memory cache of Bitmaps that keeps their total size in bytes under a budget by throwing out
+ * the least recently used ones.  It does the job of <code>android.util.LruCache</code>, which
+ * isn't available until API 12.  All the methods can be called from any thread.
+ */
+class BitmapLruCache {
+    /**
+     * The Bitmaps, least recently used first
+     */
+    @NonNull
+    private final LinkedHashMap<String, Bitmap> mMap = new LinkedHashMap<>(16, 0.75f, true);
+    /**
+     * The most bytes to keep
+     */
+    private final int mMaxSize;
+    /**
+     * The bytes kept now
+     */
+    private int mSize = 0;
+
+    /**
+     * @param maxSize The most bytes to keep
+     */
+    BitmapLruCache(int maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Gets a Bitmap, making it the most recently used.
+     * @param key The key
+     * @return The Bitmap, or <code>null</code> if it isn't in the cache
+     */
+    @Nullable
+    synchronized Bitmap get(@NonNull String key) {
+        return mMap.get(key);
+    }
+
+    /**
+     * Puts a Bitmap in the cache, then throws out the least recently used Bitmaps until the cache
+     * fits its budget again.  A Bitmap bigger than the whole budget is thrown straight back out.
+     * @param key The key
+     * @param bitmap The Bitmap
+     */
+    synchronized void put(@NonNull String key, @NonNull Bitmap bitmap) {
+        Bitmap previousBitmap = mMap.put(key, bitmap);
+        mSize += sizeOf(bitmap);
+
+        if (previousBitmap != null) {
+            mSize -= sizeOf(previousBitmap);
+
+            if (previousBitmap != bitmap) {
+                onRemoved(previousBitmap);
+            }
+        }
+
+        Iterator<Map.Entry<String, Bitmap>> iterator = mMap.entrySet().iterator();
+
+        while ((mSize > mMaxSize) && iterator.hasNext()) {
+            Bitmap evictedBitmap = iterator.next().getValue();
+            iterator.remove();
+            mSize -= sizeOf(evictedBitmap);
+            onRemoved(evictedBitmap);
+        }
+    }
+
+    /**
+     * @return A copy of the cache's contents, least recently used first
+     */
+    @NonNull
+    synchronized Map<String, Bitmap> snapshot() {
+        return new LinkedHashMap<>(mMap);
+    }
+
+    /**
+     * Returns the number of bytes a Bitmap counts for.  Must give the same answer for as long as
+     * the Bitmap is in the cache.  From KitKat on, a Bitmap decoded into a bigger reused one holds
+     * all of the bigger one's memory, so that's what it counts for.
+     */
+    protected int sizeOf(@NonNull Bitmap bitmap) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return bitmap.getAllocationByteCount();
+        }
+
+        return bitmap.getRowBytes() * bitmap.getHeight();
+    }
+
+    /**
+     * Called when a Bitmap has been thrown out of the cache or replaced.  It's called with the
+     * cache locked, so it mustn't use the cache.
+     * @param bitmap The Bitmap
+     */
+    protected void onRemoved(@NonNull Bitmap bitmap) {
+    }
+}
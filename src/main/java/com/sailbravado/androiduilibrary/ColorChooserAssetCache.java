@@ -0,0 +1,203 @@
+package com.sailbravado.androiduilibrary;
+
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.util.Map;
+
+/**
+ * Process-wide memory cache for the Bitmaps that
+ * {@link com.sailbravado.androiduilibrary.ColorChooserFragment ColorChooserFragment} and
+ * {@link com.sailbravado.androiduilibrary.SwatchGridView SwatchGridView} render.  Only the assets
+ * that don't depend on the selected color's position within them are kept here (the hue SeekBar
+ * background, the checkerboard backgrounds and tile, the full-resolution gradient for a hue and the
+ * hue/saturation wheel for a value), so they can be shared between views and filled ahead of time
+ * by {@link ColorChooserFragment#prewarm(android.content.Context, int, int)}.  Bitmaps in this cache
+ * must never be drawn on...make a copy first.
+ * <p><p>If {@link ColorChooserDiskCache} is turned on, Bitmaps added with
+ * {@link #save(String, Bitmap)} are also written to disk, and {@link #load(String)} looks there
+ * for Bitmaps missing from memory.  {@link #get(String)} never touches the disk.
+ */
+final class ColorChooserAssetCache {
+    /**
+     * The portion of the maximum heap to give to the cache
+     */
+    private static final int HEAP_FRACTION = 8;
+
+    /**
+     * The cache itself, sized in bytes
+     */
+    @NonNull
+    private static final BitmapLruCache sCache =
+            new BitmapLruCache((int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION));
+
+    /**
+     * Static class...don't instantiate
+     */
+    private ColorChooserAssetCache() {
+    }
+
+    /**
+     * Gets a Bitmap from the memory cache.  This never reads a file, so it's safe to call from the
+     * UI thread as often as needed.
+     * @param key The key (from one of the <code>...Key()</code> methods)
+     * @return The Bitmap, or <code>null</code> if it isn't in the cache
+     */
+    @Nullable
+    static Bitmap get(@NonNull String key) {
+        return sCache.get(key);
+    }
+
+    /**
+     * Gets a Bitmap from the cache, or from the disk cache if it's on.  Since this may read a file,
+     * it should be called from a render thread, or from the UI thread only when a view has nothing
+     * else to show yet.
+     * @param key The key (from one of the <code>...Key()</code> methods)
+     * @return The Bitmap, or <code>null</code> if it isn't in either cache
+     */
+    @Nullable
+    static Bitmap load(@NonNull String key) {
+        Bitmap bitmap = sCache.get(key);
+
+        if ((bitmap == null) && ColorChooserDiskCache.isEnabled()) {
+            bitmap = ColorChooserDiskCache.load(key);
+
+            if (bitmap != null) {
+                sCache.put(key, bitmap);
+            }
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Puts a Bitmap in the cache.
+     * @param key The key (from one of the <code>...Key()</code> methods)
+     * @param bitmap The Bitmap.  It must not be changed once it's in the cache.
+     */
+    static void put(@NonNull String key, @NonNull Bitmap bitmap) {
+        sCache.put(key, bitmap);
+    }
+
+    /**
+     * Puts a Bitmap in the cache and, if it's on, the disk cache.  Since this may write a file, it
+     * shouldn't be called from the UI thread.
+     * @param key The key (from one of the <code>...Key()</code> methods)
+     * @param bitmap The Bitmap.  It must not be changed once it's in the cache.
+     */
+    static void save(@NonNull String key, @NonNull Bitmap bitmap) {
+        sCache.put(key, bitmap);
+        ColorChooserDiskCache.save(key, bitmap);
+    }
+
+    /**
+     * Finds the cached saturation/value gradient of a hue that's closest to a size, to show scaled
+     * while the right size is drawn.
+     * @param width The width wanted
+     * @param height The height wanted
+     * @param hue The hue
+     * @return The Bitmap, or <code>null</code> if there's no gradient of that hue in the cache
+     */
+    @Nullable
+    static Bitmap getNearestGradient(int width, int height, float hue) {
+        return getNearest("gradient:", ":" + hue, width, height);
+    }
+
+    /**
+     * Finds the cached hue/saturation wheel of a value that's closest to a size, to show scaled
+     * while the right size is drawn.
+     * @param width The width wanted
+     * @param height The height wanted
+     * @param value The value
+     * @return The Bitmap, or <code>null</code> if there's no wheel of that value in the cache
+     */
+    @Nullable
+    static Bitmap getNearestWheel(int width, int height, float value) {
+        return getNearest("wheel:", ":" + value, width, height);
+    }
+
+    /**
+     * Finds the cached Bitmap closest to a size out of those whose keys start and end a certain
+     * way.
+     */
+    @Nullable
+    private static Bitmap getNearest(@NonNull String prefix, @NonNull String suffix, int width,
+                                     int height) {
+        Bitmap nearestBitmap = null;
+        int nearestDistance = Integer.MAX_VALUE;
+
+        // other threads may be adding to the cache, so look through a copy
+        for (Map.Entry<String, Bitmap> entry : sCache.snapshot().entrySet()) {
+            String key = entry.getKey();
+
+            if (!key.startsWith(prefix) || !key.endsWith(suffix)) {
+                continue;
+            }
+
+            Bitmap bitmap = entry.getValue();
+            int distance = Math.abs(bitmap.getWidth() - width) +
+                    Math.abs(bitmap.getHeight() - height);
+
+            if (distance < nearestDistance) {
+                nearestBitmap = bitmap;
+                nearestDistance = distance;
+            }
+        }
+
+        return nearestBitmap;
+    }
+
+    /**
+     * Returns the key for a hue SeekBar background.  Only the length of the SeekBar matters, since
+     * the background is stretched across its thickness.
+     */
+    @NonNull
+    static String hueSeekBarKey(int width, int height, int thumbOffset, boolean isVertical) {
+        return "hue:" + (isVertical ? height : width) + ":" + thumbOffset +
+                (isVertical ? ":v" : ":h");
+    }
+
+    /**
+     * Returns the key for an opacity SeekBar checkerboard background.
+     */
+    @NonNull
+    static String opacityCheckerboardKey(int width, int height, int thumbOffset,
+                                         boolean isVertical, int backgroundColor) {
+        return "opacity:" + width + "x" + height + ":" + thumbOffset + (isVertical ? ":v:" : ":h:") +
+                Integer.toHexString(backgroundColor);
+    }
+
+    /**
+     * Returns the key for a result ImageView checkerboard background.
+     */
+    @NonNull
+    static String resultCheckerboardKey(int width, int height, int backgroundColor) {
+        return "result:" + width + "x" + height + ":" + Integer.toHexString(backgroundColor);
+    }
+
+    /**
+     * Returns the key for a single repeating tile of the checkerboard shown behind transparent
+     * colors.
+     */
+    @NonNull
+    static String checkerboardTileKey(int size, int backgroundColor) {
+        return "tile:" + size + ":" + Integer.toHexString(backgroundColor);
+    }
+
+    /**
+     * Returns the key for a full-resolution saturation/value gradient of a hue.
+     */
+    @NonNull
+    static String gradientKey(int width, int height, float hue) {
+        return "gradient:" + width + "x" + height + ":" + hue;
+    }
+
+    /**
+     * Returns the key for a hue/saturation wheel of a value.
+     */
+    @NonNull
+    static String wheelKey(int width, int height, float value) {
+        return "wheel:" + width + "x" + height + ":" + value;
+    }
+}
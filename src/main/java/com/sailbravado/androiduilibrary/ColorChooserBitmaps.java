@@ -0,0 +1,236 @@
+package com.sailbravado.androiduilibrary;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapShader;
+import android.graphics.Color;
+import android.graphics.Rect;
+import android.graphics.Shader;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import com.sailbravado.androiduilibrary.render.Cancellable;
+import com.sailbravado.androiduilibrary.render.PixelRenderer;
+import com.sailbravado.androiduilibrary.render.WheelTable;
+
+/**
+ * Turns the pixel buffers drawn by {@link PixelRenderer} into the Bitmaps that
+ * {@link com.sailbravado.androiduilibrary.ColorChooserFragment ColorChooserFragment} shows.  This is
+ * the only place the color chooser's rendering touches {@link android.graphics.Bitmap}; everything
+ * else is plain Java in {@link com.sailbravado.androiduilibrary.render}.
+ */
+final class ColorChooserBitmaps {
+    /**
+     * For the opacity SeekBar and the result ImageView, the spacing of the checkerboard grid
+     */
+    static final float CHECKERBOARD_GRID_SIZE = 15;
+
+    /**
+     * Static class...don't instantiate
+     */
+    private ColorChooserBitmaps() {
+    }
+
+    /**
+     * Draws the spectrum background for the hue SeekBar.  The spectrum only changes along the
+     * length of the SeekBar, so the Bitmap is just one pixel thick (see
+     * {@link #hueSeekBarBitmapWidth(int, boolean)} and
+     * {@link #hueSeekBarBitmapHeight(int, boolean)}); the BitmapDrawable it's shown in stretches
+     * it across the SeekBar.
+     * @param width The width of the SeekBar
+     * @param height The height of the SeekBar
+     * @param thumbOffset The thumb offset of the SeekBar
+     * @param isVertical If <code>true</code> the SeekBar is a {@link VerticalSeekBar}
+     * @return The background Bitmap
+     */
+    @NonNull
+    static Bitmap drawHueSeekBarBitmap(int width, int height, int thumbOffset,
+                                       boolean isVertical) {
+        int bitmapWidth = hueSeekBarBitmapWidth(width, isVertical);
+        int bitmapHeight = hueSeekBarBitmapHeight(height, isVertical);
+        int[] pixels = new int[bitmapWidth * bitmapHeight];
+        PixelRenderer.renderHueStrip(pixels, bitmapWidth, bitmapHeight, thumbOffset, isVertical);
+        return Bitmap.createBitmap(pixels, bitmapWidth, bitmapHeight, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Returns the width of the hue SeekBar background drawn for a SeekBar.
+     * @param width The width of the SeekBar
+     * @param isVertical If <code>true</code> the SeekBar is a {@link VerticalSeekBar}
+     */
+    static int hueSeekBarBitmapWidth(int width, boolean isVertical) {
+        return isVertical ? 1 : width;
+    }
+
+    /**
+     * Returns the height of the hue SeekBar background drawn for a SeekBar.
+     * @param height The height of the SeekBar
+     * @param isVertical If <code>true</code> the SeekBar is a {@link VerticalSeekBar}
+     */
+    static int hueSeekBarBitmapHeight(int height, boolean isVertical) {
+        return isVertical ? height : 1;
+    }
+
+    /**
+     * Draws the checkerboard background for the opacity SeekBar.
+     * @param width The width of the SeekBar
+     * @param height The height of the SeekBar
+     * @param thumbOffset The thumb offset of the SeekBar
+     * @param isVertical If <code>true</code> the SeekBar is a {@link VerticalSeekBar}
+     * @param backgroundColor The background color, used to pick the color of the checkerboard
+     * @param cancellable If not null, drawing stops when this is cancelled
+     * @return The checkerboard Bitmap, or <code>null</code> if drawing was cancelled
+     */
+    @Nullable
+    static Bitmap drawOpacityCheckerboardBitmap(int width, int height, int thumbOffset,
+                                                boolean isVertical, int backgroundColor,
+                                                @Nullable Cancellable cancellable) {
+        int[] pixels = new int[width * height];
+        int squareColor = ColorUtils.isDark(backgroundColor) ? Color.WHITE : Color.BLACK;
+        boolean isFinished;
+
+        // the SeekBar's own background shows between the squares
+        if (isVertical) {
+            isFinished = PixelRenderer.renderCheckerboard(pixels, width, height, 0, thumbOffset,
+                    width, height - thumbOffset, CHECKERBOARD_GRID_SIZE, squareColor,
+                    Color.TRANSPARENT, cancellable);
+        } else {
+            isFinished = PixelRenderer.renderCheckerboard(pixels, width, height, thumbOffset, 0,
+                    width - thumbOffset, height, CHECKERBOARD_GRID_SIZE, squareColor,
+                    Color.TRANSPARENT, cancellable);
+        }
+
+        return isFinished ?
+                Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888) : null;
+    }
+
+    /**
+     * Draws the checkerboard background for the result ImageView.
+     * @param width The width of the ImageView
+     * @param height The height of the ImageView
+     * @param backgroundColor The background color
+     * @param cancellable If not null, drawing stops when this is cancelled
+     * @return The checkerboard Bitmap, or <code>null</code> if drawing was cancelled
+     */
+    @Nullable
+    static Bitmap drawResultCheckerboardBitmap(int width, int height, int backgroundColor,
+                                               @Nullable Cancellable cancellable) {
+        int[] pixels = new int[width * height];
+
+        if (!PixelRenderer.renderCheckerboard(pixels, width, height, 0, 0, width, height,
+                CHECKERBOARD_GRID_SIZE,
+                ColorUtils.isDark(backgroundColor) ? Color.WHITE : Color.BLACK, backgroundColor,
+                cancellable)) {
+            return null;
+        }
+
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Draws one tile of the checkerboard shown behind transparent colors.  Repeating the tile
+     * gives the same pattern as {@link #drawResultCheckerboardBitmap(int, int, int, Cancellable)}.
+     * @param backgroundColor The background color
+     * @return The tile Bitmap
+     */
+    @NonNull
+    static Bitmap drawCheckerboardTileBitmap(int backgroundColor) {
+        int size = (int) CHECKERBOARD_GRID_SIZE;
+        int[] pixels = new int[size * size];
+        PixelRenderer.renderCheckerboard(pixels, size, size, 0, 0, size, size,
+                CHECKERBOARD_GRID_SIZE,
+                ColorUtils.isDark(backgroundColor) ? Color.WHITE : Color.BLACK, backgroundColor,
+                null);
+        return Bitmap.createBitmap(pixels, size, size, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Creates a shader that repeats the checkerboard tile for a background color.  The tile is
+     * shared through the {@link ColorChooserAssetCache}, and it's tiny, so it's drawn on the
+     * calling thread when the cache doesn't have it.
+     * @param backgroundColor The background color
+     * @return The shader
+     */
+    @NonNull
+    static BitmapShader createCheckerboardShader(int backgroundColor) {
+        String key = ColorChooserAssetCache.checkerboardTileKey((int) CHECKERBOARD_GRID_SIZE,
+                backgroundColor);
+        Bitmap tile = ColorChooserAssetCache.get(key);
+
+        if (tile == null) {
+            tile = drawCheckerboardTileBitmap(backgroundColor);
+            ColorChooserAssetCache.put(key, tile);
+        }
+
+        return new BitmapShader(tile, Shader.TileMode.REPEAT, Shader.TileMode.REPEAT);
+    }
+
+    /**
+     * Draws the saturation and value gradient for a hue.
+     * @param width The width of the gradient
+     * @param height The height of the gradient
+     * @param hue The hue
+     * @param blockSize 1 for the full-resolution gradient, or the size of the blocks for a
+     *                  low-resolution preview
+     * @param cancellable If not null, drawing stops when this is cancelled
+     * @return The gradient Bitmap, or <code>null</code> if drawing was cancelled
+     */
+    @Nullable
+    static Bitmap drawGradientBitmap(int width, int height, float hue, int blockSize,
+                                     @Nullable Cancellable cancellable) {
+        int[] pixels = new int[width * height];
+
+        if (!PixelRenderer.renderGradient(pixels, width, height, hue, blockSize, cancellable)) {
+            return null;
+        }
+
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Draws the hue and saturation wheel for a value.
+     * @param width The width of the wheel's image
+     * @param height The height of the wheel's image
+     * @param value The value
+     * @param cancellable If not null, drawing stops when this is cancelled
+     * @return The wheel Bitmap, or <code>null</code> if drawing was cancelled
+     */
+    @Nullable
+    static Bitmap drawWheelBitmap(int width, int height, float value,
+                                  @Nullable Cancellable cancellable) {
+        int[] pixels = new int[width * height];
+
+        if (!PixelRenderer.renderWheel(pixels, WheelTable.forSize(width, height), value,
+                cancellable)) {
+            return null;
+        }
+
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Draws the opacities of a color over the checkerboard background of the opacity SeekBar.
+     * @param checkerboardBitmap The checkerboard background
+     * @param drawingRect The area in which to draw the opacities
+     * @param color The color
+     * @param isVertical If <code>true</code> the SeekBar is a {@link VerticalSeekBar}
+     * @param cancellable If not null, drawing stops when this is cancelled
+     * @return The finished Bitmap, or <code>null</code> if drawing was cancelled
+     */
+    @Nullable
+    static Bitmap drawOpacityBitmap(@NonNull Bitmap checkerboardBitmap, @NonNull Rect drawingRect,
+                                    int color, boolean isVertical,
+                                    @Nullable Cancellable cancellable) {
+        int width = checkerboardBitmap.getWidth();
+        int height = checkerboardBitmap.getHeight();
+        int[] pixels = new int[width * height];
+        checkerboardBitmap.getPixels(pixels, 0, width, 0, 0, width, height);
+
+        if (!PixelRenderer.renderAlphaRamp(pixels, width, height, drawingRect.left,
+                drawingRect.top, drawingRect.right, drawingRect.bottom, color, isVertical,
+                cancellable)) {
+            return null;
+        }
+
+        return Bitmap.createBitmap(pixels, width, height, Bitmap.Config.ARGB_8888);
+    }
+}
@@ -0,0 +1,285 @@
+package com.sailbravado.androiduilibrary;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Optional disk cache for the Bitmaps in {@link ColorChooserAssetCache}, so that the color chooser
+ * can show its final picture on the first frame after the process is restarted instead of
+ * rendering it again.  Each Bitmap is kept in its own file in the app's cache directory as a small
+ * header followed by the Bitmap's raw pixels, exactly as {@link Bitmap#copyPixelsToBuffer} gives
+ * them.  Files are read back by mapping them into memory and copying the mapping straight into a
+ * new Bitmap, with no decoding.  The files are named after the asset cache key and the screen
+ * density, and the least recently used ones are deleted when the total size goes over
+ * {@link #MAX_SIZE}.
+ * <p><p>The disk cache is off until {@link #setEnabled(Context, boolean)} turns it on.  Failures
+ * of any kind just count as cache misses.
+ */
+final class ColorChooserDiskCache {
+    /**
+     * The name of the directory within the app's cache directory
+     */
+    private static final String DIRECTORY_NAME = "color_chooser";
+    /**
+     * The extension of the cache files
+     */
+    private static final String FILE_EXTENSION = ".px";
+    /**
+     * The extension of files still being written
+     */
+    private static final String TEMPORARY_FILE_EXTENSION = ".tmp";
+    /**
+     * Identifies a cache file, and changes if the format does
+     */
+    private static final int MAGIC = 0x43435031;
+    /**
+     * The size of the header: the magic number, width and height
+     */
+    private static final int HEADER_SIZE = 12;
+    /**
+     * The most bytes to keep on disk
+     */
+    private static final long MAX_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The directory holding the cache files, or <code>null</code> if the disk cache is off
+     */
+    @Nullable
+    private static volatile File sDirectory = null;
+    /**
+     * The density of the screen, in dots per inch
+     */
+    private static volatile int sDensityDpi;
+
+    /**
+     * Static class...don't instantiate
+     */
+    private ColorChooserDiskCache() {
+    }
+
+    /**
+     * Turns the disk cache on or off.  Turning it off leaves the files where they are.
+     * @param context Any context in the app
+     * @param isEnabled If <code>true</code> the disk cache is used
+     */
+    static void setEnabled(@NonNull Context context, boolean isEnabled) {
+        if (!isEnabled) {
+            sDirectory = null;
+            return;
+        }
+
+        sDensityDpi = context.getResources().getDisplayMetrics().densityDpi;
+        File directory = new File(context.getCacheDir(), DIRECTORY_NAME);
+
+        if (directory.isDirectory() || directory.mkdirs()) {
+            sDirectory = directory;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the disk cache is on
+     */
+    static boolean isEnabled() {
+        return sDirectory != null;
+    }
+
+    /**
+     * Reads a Bitmap from the disk cache.
+     * @param key The asset cache key
+     * @return The Bitmap, or <code>null</code> if the disk cache is off or doesn't have it
+     */
+    @Nullable
+    static Bitmap load(@NonNull String key) {
+        File directory = sDirectory;
+
+        if (directory == null) {
+            return null;
+        }
+
+        File file = new File(directory, fileNameOf(key));
+
+        if (!file.isFile()) {
+            return null;
+        }
+
+        RandomAccessFile randomAccessFile = null;
+
+        try {
+            randomAccessFile = new RandomAccessFile(file, "r");
+            FileChannel channel = randomAccessFile.getChannel();
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+
+            while (header.hasRemaining()) {
+                if (channel.read(header) < 0) {
+                    return null;
+                }
+            }
+
+            header.flip();
+            int magic = header.getInt();
+            int width = header.getInt();
+            int height = header.getInt();
+            long pixelSize = (long) width * height * 4;
+
+            if ((magic != MAGIC) || (width <= 0) || (height <= 0) ||
+                    (channel.size() != HEADER_SIZE + pixelSize)) {
+                //noinspection ResultOfMethodCallIgnored
+                file.delete();
+                return null;
+            }
+
+            MappedByteBuffer pixels = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE,
+                    pixelSize);
+            Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            bitmap.copyPixelsFromBuffer(pixels);
+
+            // keep track of use for trimming
+            //noinspection ResultOfMethodCallIgnored
+            file.setLastModified(System.currentTimeMillis());
+            return bitmap;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        } finally {
+            close(randomAccessFile);
+        }
+    }
+
+    /**
+     * Writes a Bitmap to the disk cache, if it's on.  Since this writes a file, it shouldn't be
+     * called from the UI thread.
+     * @param key The asset cache key
+     * @param bitmap The Bitmap, which must be {@link Bitmap.Config#ARGB_8888}
+     */
+    static void save(@NonNull String key, @NonNull Bitmap bitmap) {
+        File directory = sDirectory;
+
+        if ((directory == null) || (bitmap.getConfig() != Bitmap.Config.ARGB_8888)) {
+            return;
+        }
+
+        int width = bitmap.getWidth();
+        int height = bitmap.getHeight();
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (width * height * 4))
+                .order(ByteOrder.nativeOrder());
+        buffer.putInt(MAGIC).putInt(width).putInt(height);
+        bitmap.copyPixelsToBuffer(buffer);
+        buffer.flip();
+
+        // write to a temporary file then rename it, so that a half-written file is never loaded
+        File file = new File(directory, fileNameOf(key));
+        File temporaryFile = new File(directory, file.getName() + TEMPORARY_FILE_EXTENSION);
+        RandomAccessFile randomAccessFile = null;
+        boolean isWritten = false;
+
+        try {
+            randomAccessFile = new RandomAccessFile(temporaryFile, "rw");
+            randomAccessFile.setLength(0);
+            FileChannel channel = randomAccessFile.getChannel();
+
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+
+            isWritten = true;
+        } catch (IOException e) {
+            // nothing more to do...it just won't be cached
+        } finally {
+            close(randomAccessFile);
+        }
+
+        if (!isWritten || !temporaryFile.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            temporaryFile.delete();
+            return;
+        }
+
+        trim(directory);
+    }
+
+    /**
+     * Deletes the least recently used files until the cache fits in {@link #MAX_SIZE}.
+     */
+    private static synchronized void trim(@NonNull File directory) {
+        File[] files = directory.listFiles();
+
+        if (files == null) {
+            return;
+        }
+
+        long totalSize = 0;
+
+        for (File file : files) {
+            totalSize += file.length();
+        }
+
+        if (totalSize <= MAX_SIZE) {
+            return;
+        }
+
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                long lhsModified = lhs.lastModified();
+                long rhsModified = rhs.lastModified();
+                return (lhsModified < rhsModified) ? -1 : ((lhsModified == rhsModified) ? 0 : 1);
+            }
+        });
+
+        for (File file : files) {
+            if (totalSize <= MAX_SIZE) {
+                break;
+            }
+
+            long length = file.length();
+
+            if (file.getName().endsWith(FILE_EXTENSION) && file.delete()) {
+                totalSize -= length;
+            }
+        }
+    }
+
+    /**
+     * Turns an asset cache key into a file name.  Sizes in the keys are in pixels, but the thumb
+     * offsets and the like that go with them depend on the density, so that's part of the name
+     * too.
+     */
+    @NonNull
+    private static String fileNameOf(@NonNull String key) {
+        StringBuilder name = new StringBuilder(key.length() + 16);
+
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            boolean isSafe = ((c >= 'a') && (c <= 'z')) || ((c >= 'A') && (c <= 'Z')) ||
+                    ((c >= '0') && (c <= '9')) || (c == '.') || (c == '-');
+            name.append(isSafe ? c : '_');
+        }
+
+        return name.append('_').append(sDensityDpi).append("dpi").append(FILE_EXTENSION)
+                .toString();
+    }
+
+    /**
+     * Closes a file, ignoring any errors.
+     */
+    private static void close(@Nullable RandomAccessFile file) {
+        if (file != null) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                // nothing more to do
+            }
+        }
+    }
+}
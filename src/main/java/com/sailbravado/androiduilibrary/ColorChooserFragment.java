@@ -2,17 +2,23 @@ package com.sailbravado.androiduilibrary;
 
 import android.app.Activity;
 import android.app.Fragment;
+import android.app.FragmentManager;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.graphics.drawable.BitmapDrawable;
-import android.os.AsyncTask;
+import android.graphics.drawable.ColorDrawable;
+import android.graphics.drawable.Drawable;
+import android.graphics.drawable.GradientDrawable;
+import android.graphics.drawable.InsetDrawable;
+import android.graphics.drawable.LayerDrawable;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
 import android.os.Message;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
@@ -21,19 +27,27 @@ import android.view.LayoutInflater;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
-import android.view.ViewTreeObserver;
 import android.view.inputmethod.InputMethodManager;
 import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.SeekBar;
 
+import com.sailbravado.androiduilibrary.render.PaletteQuantizer;
+import com.sailbravado.androiduilibrary.render.SummedAreaTable;
+
 import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 /**
  * Fragment to implement a color chooser.  Activities that contain this fragment may implement the
  * {@link ColorChooserFragment.OnFragmentInteractionListener} interface to handle changes to the
- * selected color.  ColorChooserFragment also exposes method ({@link #getColor()} to retrieve the
- * current color.
+ * selected color.  ColorChooserFragment also exposes methods ({@link #getColor()} and
+ * {@link #setColor(int)}) to retrieve and change the current color.
  *
  * Use the {@link com.sailbravado.androiduilibrary.ColorChooserFragment.Builder} factory method to
  * create an instance of this fragment.
@@ -50,9 +64,28 @@ public class ColorChooserFragment extends Fragment {
     private static final String BACKGROUND_COLOR_KEY = "background_color";
     private static final int BACKGROUND_COLOR_DEFAULT = Color.WHITE;
     /**
-     * For the opacity SeekBar and the result ImageView, the spacing of the checkerboard grid
+     * Used to store the eyedropper radius in the bundle
+     */
+    private static final String EYEDROPPER_RADIUS_KEY = "eyedropper_radius";
+    private static final int EYEDROPPER_RADIUS_DEFAULT = 4;
+    /**
+     * Used to store whether the fragment shows a hue/saturation wheel in the bundle
+     */
+    private static final String WHEEL_MODE_KEY = "wheel_mode";
+    /**
+     * Used to store the key of the fragment's {@link RenderStateFragment} in the bundle
+     */
+    private static final String RENDER_STATE_KEY_KEY = "render_state_key";
+    /**
+     * In wheel mode, the maximum of the value SeekBar
+     */
+    private static final int VALUE_SEEK_BAR_MAX = 100;
+    /**
+     * Prefix for the tag of the {@link RenderStateFragment} that holds the rendered Bitmaps and
+     * background workers for this fragment across configuration changes
      */
-    private static final float CHECKERBOARD_GRID_SIZE = 15;
+    private static final String RENDER_STATE_TAG_PREFIX =
+            "com.sailbravado.androiduilibrary.ColorChooserFragment.RenderState:";
     /**
      * For the opacity SeekBar and the result ImageView, the portion of the overall size that goes
      * to the margin around the interior
@@ -64,40 +97,89 @@ public class ColorChooserFragment extends Fragment {
      * The starting resolution for the gradient Bitmap.  Set this to a power of 2.
      */
     private static final int GRADIENT_BITMAP_STARTING_RESOLUTION = 64;
+    /**
+     * The number of colors to suggest from the source Bitmap
+     */
+    private static final int SUGGESTED_COLOR_COUNT = 16;
+    /**
+     * For the quick first palette of the source Bitmap, the spacing of the pixels sampled (in both
+     * directions)
+     */
+    private static final int PALETTE_SUBSAMPLE_STEP = 4;
+    /**
+     * How long a view has to keep the same size, in milliseconds, before its Bitmaps are drawn
+     * again for that size.  While a window is being resized its views change size on every frame,
+     * and in the meantime they show what they already have, scaled.
+     */
+    private static final long RESIZE_DEBOUNCE_DELAY = 200;
     /**
      * Message to send when the
      * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.OpacitySeekBarBackgroundWorker
      * OpacitySeekBarBackgroundWorker} is finished.  The {@link android.os.Message#obj obj} field
-     * of the message is set to the background Bitmap for the opacity SeekBar.
+     * of the message is set to the worker, which holds the finished Bitmap and the checkerboard
+     * background Bitmap for the opacity SeekBar.
      */
     private static final int OPACITY_SEEK_BAR_BACKGROUND_WORKER_DONE = 1;
     /**
      * Message to send when the
-     * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.ResultImageViewBackgroundWorker
-     * ResultImageViewBackgroundWorker} is finished.  The {@link android.os.Message#obj obj} field
-     * of the message is set to the background Bitmap for the result ImageView.
+     * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.ResultCheckerboardWorker
+     * ResultCheckerboardWorker} is finished.  The {@link android.os.Message#obj obj} field of the
+     * message is set to the worker, which holds the checkerboard background Bitmap for the result
+     * ImageView.
      */
-    private static final int RESULT_IMAGE_VIEW_BACKGROUND_WORKER_DONE = 2;
+    private static final int RESULT_CHECKERBOARD_WORKER_DONE = 2;
     /**
      * Message to send when the
      * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.GradientBitmapBackgroundWorker
      * GradientBitmapBackgroundWorker} has a new version of the background Bitmap complete.  The
-     * {@link android.os.Message#obj obj} field of the Message is set to the new background Bitmap
+     * {@link android.os.Message#obj obj} field of the Message is set to the worker, which holds
+     * the new background Bitmap
      */
     private static final int GRADIENT_BITMAP_BACKGROUND_WORKER_UPDATE = 3;
     /**
      * Message to send when the
      * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.GradientBitmapBackgroundWorker
      * GradientBitmapBackgroundWorker} is finished.  The {@link android.os.Message#obj obj} field
-     * of the message is set to the background Bitmap for the gradient ImageView.
+     * of the message is set to the worker, which holds the background Bitmap for the gradient
+     * ImageView.
      */
     private static final int GRADIENT_BITMAP_BACKGROUND_WORKER_DONE = 4;
     /**
      * Message to send when the
      * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.GradientImageViewBackgroundWorker
-     * GradientImageViewBackgroundWorker} is finished.  There is no extra data with this message.
+     * GradientImageViewBackgroundWorker} is finished.  The {@link android.os.Message#obj obj}
+     * field of the message is set to the worker, which holds the finished Bitmap for the gradient
+     * ImageView.
      */
     private static final int GRADIENT_IMAGE_VIEW_BACKGROUND_WORKER_DONE = 5;
+    /**
+     * Message to send when the
+     * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.HueSeekBarBackgroundWorker
+     * HueSeekBarBackgroundWorker} is finished.  The {@link android.os.Message#obj obj} field of
+     * the message is set to the worker, which holds the background Bitmap for the hue SeekBar.
+     */
+    private static final int HUE_SEEK_BAR_BACKGROUND_WORKER_DONE = 6;
+    /**
+     * Message to send when the
+     * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.SummedAreaTableWorker
+     * SummedAreaTableWorker} is finished.  The {@link android.os.Message#obj obj} field of the
+     * message is set to the worker, which holds the summed-area table of the source Bitmap.
+     */
+    private static final int SUMMED_AREA_TABLE_WORKER_DONE = 7;
+    /**
+     * Message to send when the
+     * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.PaletteWorker PaletteWorker}
+     * has a palette from a sample of the source Bitmap.  The {@link android.os.Message#obj obj}
+     * field of the message is set to the worker, which holds the palette.
+     */
+    private static final int PALETTE_WORKER_UPDATE = 8;
+    /**
+     * Message to send when the
+     * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.PaletteWorker PaletteWorker}
+     * is finished.  The {@link android.os.Message#obj obj} field of the message is set to the
+     * worker, which holds the palette of the whole source Bitmap.
+     */
+    private static final int PALETTE_WORKER_DONE = 9;
 
     // instance fields
     /**
@@ -118,6 +200,35 @@ public class ColorChooserFragment extends Fragment {
      * in the builder...if not set, it will be the default theme background color.
      */
     private int mBackgroundColor;
+    /**
+     * If <code>true</code> the gradient ImageView shows a hue/saturation wheel and the hue SeekBar
+     * sets the value; otherwise the gradient ImageView shows saturation and value for the hue
+     * chosen with the hue SeekBar
+     */
+    private boolean mIsWheelMode;
+    /**
+     * Scratch space for the brightest color of the value SeekBar, so dragging doesn't allocate
+     */
+    @NonNull
+    private final float[] mValueSeekBarHSV = new float[3];
+    /**
+     * The image the eyedropper picks colors from, or <code>null</code> if there isn't one
+     */
+    @Nullable
+    private Bitmap mSourceBitmap = null;
+    /**
+     * How far from the touched point of the source Bitmap the eyedropper averages, in pixels of
+     * the Bitmap
+     */
+    private int mEyedropperRadius;
+    /**
+     * Scratch space for mapping eyedropper touches into the source Bitmap, so dragging doesn't
+     * allocate
+     */
+    @NonNull
+    private final Matrix mEyedropperMatrix = new Matrix();
+    @NonNull
+    private final float[] mEyedropperPoint = new float[2];
     @NonNull
     private ImageView mGradientImageView;
     @NonNull
@@ -127,6 +238,19 @@ public class ColorChooserFragment extends Fragment {
     @NonNull
     private ImageView mResultImageView;
     @NonNull
+    private ImageView mSourceImageView;
+    /**
+     * Shows the colors suggested by the source Bitmap
+     */
+    @NonNull
+    private SwatchGridView mSuggestedColorsView;
+    /**
+     * The top layer of the result ImageView: a plain fill of the selected color over the
+     * checkerboard.  Changing the selected color only changes the color of this drawable.
+     */
+    @NonNull
+    private ColorDrawable mResultColorDrawable;
+    @NonNull
     private EditText mAlphaEditText;
     @NonNull
     private EditText mRedEditText;
@@ -135,55 +259,21 @@ public class ColorChooserFragment extends Fragment {
     @NonNull
     private EditText mBlueEditText;
     /**
-     * The checkerboard background for the opacity SeekBar
-     */
-    @Nullable
-    private Bitmap mOpacitySeekBarBackgroundBitmap = null;
-    /**
-     * The inside rectangle in which to draw the gradient of opacity for the selected color
-     */
-    @NonNull
-    private Rect mOpacitySeekBarDrawingRect;
-    /**
-     * The checkerboard background for the result ImageView
-     */
-    @Nullable
-    private Bitmap mResultImageViewBackgroundBitmap = null;
-    /**
-     * The inside rectangle in which to draw the resultant selected color
+     * Holds the rendered Bitmaps and the background workers.  This survives configuration changes
+     * so that the new view hierarchy can show the existing Bitmaps right away.
      */
     @NonNull
-    private Rect mResultImageViewDrawingRect;
-    /**
-     * The Bitmap with saturation and value settings for the current hue
-     */
-    @Nullable
-    private Bitmap mGradientImageViewBackgroundBitmap = null;
-    /**
-     * When non-null there's a thread working on building a background for the opacity SeekBar
-     */
-    @Nullable
-    private OpacitySeekBarBackgroundWorker mOpacitySeekBarBackgroundWorker = null;
-    /**
-     * When non-null there's a thread working on building the result ImageView
-     */
-    @Nullable
-    private ResultImageViewBackgroundWorker mResultImageViewBackgroundWorker = null;
-    /**
-     * When non-null there's a thread working on building the gradient Bitmap
-     */
-    @Nullable
-    private GradientBitmapBackgroundWorker mGradientBitmapBackgroundWorker = null;
+    private RenderStateFragment mRenderState;
     /**
-     * When non-null there's a thread working on displaying the gradient ImageView
+     * Identifies this fragment's render state in the Activity's FragmentManager.  It's saved with
+     * the instance state, so the instance that replaces this one finds the same render state.
      */
-    @Nullable
-    private GradientImageViewBackgroundWorker mGradientImageViewBackgroundWorker = null;
+    private String mRenderStateKey;
     /**
-     * A Handler for background workers to send messages to
+     * <code>true</code> between onResume() and onPause().  Used to decide how urgently this
+     * fragment's rendering is needed.
      */
-    @NonNull
-    private final WorkerMessageHandler mHandler = new WorkerMessageHandler(this);
+    private boolean mIsInForeground = false;
     /**
      * Listener for changes to the hue and opacity SeekBars
      */
@@ -198,31 +288,21 @@ public class ColorChooserFragment extends Fragment {
 
             // find the new color
             if (seekBar == mHueSeekBar) {
-                // new hue, same saturation, value, and alpha
-                mColorHSV[0] = progress;
-                mColorARGB = Color.HSVToColor(Color.alpha(mColorARGB), mColorHSV);
-
-                // changing the hue changes both the gradient and the opacity views
-                if (mGradientBitmapBackgroundWorker != null) {
-                    mGradientBitmapBackgroundWorker.cancel(true);
+                if (mIsWheelMode) {
+                    // this is really the value SeekBar...new value, same hue, saturation, and
+                    // alpha
+                    mColorHSV[2] = (float) progress / VALUE_SEEK_BAR_MAX;
+                } else {
+                    // new hue, same saturation, value, and alpha
+                    mColorHSV[0] = progress;
                 }
 
-                // the handler will create the GradientImageViewBackgroundWorker when this worker
-                // is finished
-                mGradientBitmapBackgroundWorker = new GradientBitmapBackgroundWorker(
-                        mGradientImageView.getWidth(), mGradientImageView.getHeight(), mHandler);
-                mGradientBitmapBackgroundWorker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
-                        mColorHSV[0]);
-
-                if (mOpacitySeekBarBackgroundWorker != null) {
-                    mOpacitySeekBarBackgroundWorker.cancel(true);
-                }
+                mColorARGB = Color.HSVToColor(Color.alpha(mColorARGB), mColorHSV);
 
-                mOpacitySeekBarBackgroundWorker = new OpacitySeekBarBackgroundWorker(mOpacitySeekBar,
-                        mOpacitySeekBarDrawingRect, mBackgroundColor,
-                        mOpacitySeekBarBackgroundBitmap, mHandler);
-                mOpacitySeekBarBackgroundWorker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
-                        mColorARGB);
+                // changing the hue (or the value of the wheel) changes both the gradient and the
+                // opacity views
+                startGradientBitmapBackgroundWorker();
+                startOpacitySeekBarBackgroundWorker();
             } else {
                 // this is the opacity SeekBar...only alpha changes
                 mColorARGB = Color.argb(progress, Color.red(mColorARGB), Color.green(mColorARGB),
@@ -230,20 +310,10 @@ public class ColorChooserFragment extends Fragment {
             }
 
             // result ImageView and ARGB EditTexts always change
-            if (mResultImageViewBackgroundWorker != null) {
-                mResultImageViewBackgroundWorker.cancel(true);
-            }
-
-            mResultImageViewBackgroundWorker = new ResultImageViewBackgroundWorker(mResultImageView,
-                    mResultImageViewDrawingRect, mBackgroundColor, mResultImageViewBackgroundBitmap,
-                    mHandler);
-            mResultImageViewBackgroundWorker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
-                    mColorARGB);
+            mResultColorDrawable.setColor(mColorARGB);
             setARGB();
 
-            if (mListener != null) {
-                mListener.onFragmentInteraction(mColorARGB);
-            }
+            notifyColorChanged();
         }
 
         @Override
@@ -261,6 +331,11 @@ public class ColorChooserFragment extends Fragment {
     private final View.OnTouchListener mTouchListener = new View.OnTouchListener() {
         @Override
         public boolean onTouch(View v, MotionEvent event) {
+            // the user is working with this picker, so its rendering goes ahead of any others
+            if (event.getAction() == MotionEvent.ACTION_DOWN) {
+                ColorChooserRenderEngine.setFocusedClient(mRenderState.mHandler);
+            }
+
             // if the user has touched something other than an EditText, hide the text input
             // window
             if ((v != mAlphaEditText) && (v != mRedEditText) && (v != mGreenEditText) &&
@@ -278,8 +353,9 @@ public class ColorChooserFragment extends Fragment {
                 setARGB();
             }
 
-            // that's all we need to do unless the user has selected the gradient ImageView
-            if (v != mGradientImageView) {
+            // that's all we need to do unless the user has selected the gradient ImageView or the
+            // source ImageView
+            if ((v != mGradientImageView) && (v != mSourceImageView)) {
                 return false;
             }
 
@@ -296,49 +372,51 @@ public class ColorChooserFragment extends Fragment {
                     break;
             }
 
-            // find the new color (same hue and alpha, different saturation and value)
-            mColorHSV[1] = event.getX() / v.getWidth();
-            mColorHSV[2] = event.getY() / v.getHeight();
-            mColorARGB = Color.HSVToColor(Color.alpha(mColorARGB), mColorHSV);
-
-            // all the views except the hue SeekBar update
-            if (mGradientImageViewBackgroundWorker != null) {
-                mGradientImageViewBackgroundWorker.cancel(true);
+            if (v == mSourceImageView) {
+                pickSourceColor(event.getX(), event.getY());
+                return true;
             }
 
-            mGradientImageViewBackgroundWorker = new GradientImageViewBackgroundWorker(
-                    mGradientImageView, mGradientImageViewBackgroundBitmap, mHandler);
-            mGradientImageViewBackgroundWorker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
-                    mColorHSV[0], mColorHSV[1], mColorHSV[2]);
-
-            if (mOpacitySeekBarBackgroundWorker != null) {
-                mOpacitySeekBarBackgroundWorker.cancel(true);
+            if (mIsWheelMode) {
+                // find the new color (same value and alpha, different hue and saturation)
+                float radius = Math.min(v.getWidth(), v.getHeight()) / 2f;
+                float dx = event.getX() - (v.getWidth() / 2f);
+                float dy = (v.getHeight() / 2f) - event.getY();
+                float hue = (float) Math.toDegrees(Math.atan2(dy, dx));
+                mColorHSV[0] = (hue < 0) ? (hue + 360) : hue;
+                mColorHSV[1] = Math.min(1, (float) Math.sqrt((dx * dx) + (dy * dy)) / radius);
+                updateValueSeekBarBackground();
+            } else {
+                // find the new color (same hue and alpha, different saturation and value)
+                mColorHSV[1] = event.getX() / v.getWidth();
+                mColorHSV[2] = event.getY() / v.getHeight();
             }
 
-            mOpacitySeekBarBackgroundWorker = new OpacitySeekBarBackgroundWorker(mOpacitySeekBar,
-                    mOpacitySeekBarDrawingRect, mBackgroundColor, mOpacitySeekBarBackgroundBitmap,
-                    mHandler);
-            mOpacitySeekBarBackgroundWorker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
-                    mColorARGB);
-
-            if (mResultImageViewBackgroundWorker != null) {
-                mResultImageViewBackgroundWorker.cancel(true);
-            }
+            mColorARGB = Color.HSVToColor(Color.alpha(mColorARGB), mColorHSV);
 
-            mResultImageViewBackgroundWorker = new ResultImageViewBackgroundWorker(mResultImageView,
-                    mResultImageViewDrawingRect, mBackgroundColor,
-                    mResultImageViewBackgroundBitmap, mHandler);
-            mResultImageViewBackgroundWorker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
-                    mColorARGB);
+            // all the views except the hue SeekBar update
+            startGradientImageViewBackgroundWorker();
+            startOpacitySeekBarBackgroundWorker();
+            mResultColorDrawable.setColor(mColorARGB);
             setARGB();
 
-            if (mListener != null) {
-                mListener.onFragmentInteraction(mColorARGB);
-            }
+            notifyColorChanged();
 
             return true;
         }
     };
+    /**
+     * Listener for taps on the suggested colors
+     */
+    @NonNull
+    private final SwatchGridView.OnSwatchSelectedListener mSuggestedColorListener =
+            new SwatchGridView.OnSwatchSelectedListener() {
+        @Override
+        public void onSwatchSelected(SwatchGridView view, int index, int color) {
+            ColorChooserRenderEngine.setFocusedClient(mRenderState.mHandler);
+            setColorFromImage(color);
+        }
+    };
     /**
      * Listens for changes to an ARGB value
      */
@@ -347,7 +425,9 @@ public class ColorChooserFragment extends Fragment {
         @Override
         public void onFocusChange(View v, boolean hasFocus) {
             if (hasFocus) {
-                // only need to worry about this when the focus is leaving
+                // only need to worry about this when the focus is leaving, but the user is working
+                // with this picker now, so its rendering goes ahead of any others
+                ColorChooserRenderEngine.setFocusedClient(mRenderState.mHandler);
                 return;
             }
 
@@ -385,52 +465,76 @@ public class ColorChooserFragment extends Fragment {
                 return;
             }
 
-            mColorARGB = newARGB;
-            Color.colorToHSV(mColorARGB, mColorHSV);
+            // setColor() works out which views need to change
+            setColor(newARGB);
 
-            // the opacity SeekBar and result ImageView always update
-            if (mOpacitySeekBarBackgroundWorker != null) {
-                mOpacitySeekBarBackgroundWorker.cancel(true);
-            }
+            notifyColorChanged();
+        }
+    };
 
-            mOpacitySeekBarBackgroundWorker = new OpacitySeekBarBackgroundWorker(mOpacitySeekBar,
-                    mOpacitySeekBarDrawingRect, mBackgroundColor, mOpacitySeekBarBackgroundBitmap,
-                    mHandler);
-            mOpacitySeekBarBackgroundWorker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
-                    mColorARGB);
-            mOpacitySeekBar.setProgress(Color.alpha(mColorARGB));
+    /**
+     * Listener for changes to the size of the views that show rendered Bitmaps.  The first layout
+     * is dealt with right away; later changes wait until the size settles.
+     */
+    @NonNull
+    private final View.OnLayoutChangeListener mLayoutChangeListener =
+            new View.OnLayoutChangeListener() {
+        @Override
+        public void onLayoutChange(View v, int left, int top, int right, int bottom, int oldLeft,
+                                   int oldTop, int oldRight, int oldBottom) {
+            int width = right - left;
+            int height = bottom - top;
+            boolean isFirstLayout = (oldRight == oldLeft) && (oldBottom == oldTop);
 
-            if (mResultImageViewBackgroundWorker != null) {
-                mResultImageViewBackgroundWorker.cancel(true);
+            if ((width == oldRight - oldLeft) && (height == oldBottom - oldTop)) {
+                return;
             }
 
-            mResultImageViewBackgroundWorker = new ResultImageViewBackgroundWorker(mResultImageView,
-                    mResultImageViewDrawingRect, mBackgroundColor, mResultImageViewBackgroundBitmap,
-                    mHandler);
-            mResultImageViewBackgroundWorker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
-                    mColorARGB);
-
-            if (mListener != null) {
-                mListener.onFragmentInteraction(mColorARGB);
-            }
+            Runnable sizeChangedRunnable = getSizeChangedRunnable(v);
+            v.removeCallbacks(sizeChangedRunnable);
 
-            // if it was only alpha that updated, the hue and gradient don't change
-            if (v == mAlphaEditText) {
+            if ((width <= 0) || (height <= 0)) {
+                // nothing to draw until the view has a size again
                 return;
             }
 
-            mHueSeekBar.setProgress((int) mColorHSV[0]);
+            if (isFirstLayout) {
+                sizeChangedRunnable.run();
+            } else {
+                if (v == mGradientImageView) {
+                    showNearestGradient(width, height);
+                }
 
-            if (mGradientBitmapBackgroundWorker != null) {
-                mGradientBitmapBackgroundWorker.cancel(true);
+                v.postDelayed(sizeChangedRunnable, RESIZE_DEBOUNCE_DELAY);
             }
-
-            // the handler will create the GradientImageViewBackgroundWorker when this worker
-            // is finished
-            mGradientBitmapBackgroundWorker = new GradientBitmapBackgroundWorker(
-                    mGradientImageView.getWidth(), mGradientImageView.getHeight(), mHandler);
-            mGradientBitmapBackgroundWorker.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR,
-                    mColorHSV[0]);
+        }
+    };
+    @NonNull
+    private final Runnable mHueSeekBarSizeChangedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onHueSeekBarSizeChanged();
+        }
+    };
+    @NonNull
+    private final Runnable mOpacitySeekBarSizeChangedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onOpacitySeekBarSizeChanged();
+        }
+    };
+    @NonNull
+    private final Runnable mResultImageViewSizeChangedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onResultImageViewSizeChanged();
+        }
+    };
+    @NonNull
+    private final Runnable mGradientImageViewSizeChangedRunnable = new Runnable() {
+        @Override
+        public void run() {
+            onGradientImageViewSizeChanged();
         }
     };
 
@@ -463,6 +567,16 @@ public class ColorChooserFragment extends Fragment {
 
         mColorARGB = args.getInt(COLOR_KEY, COLOR_DEFAULT);
         Color.colorToHSV(mColorARGB, mColorHSV);
+        mEyedropperRadius = args.getInt(EYEDROPPER_RADIUS_KEY, EYEDROPPER_RADIUS_DEFAULT);
+        mIsWheelMode = args.getBoolean(WHEEL_MODE_KEY, false);
+
+        // the tag and the ID aren't enough: they can be missing or shared by several pickers
+        mRenderStateKey = (savedInstanceState != null) ?
+                savedInstanceState.getString(RENDER_STATE_KEY_KEY) : null;
+
+        if (mRenderStateKey == null) {
+            mRenderStateKey = UUID.randomUUID().toString();
+        }
     }
 
     @Override
@@ -470,6 +584,9 @@ public class ColorChooserFragment extends Fragment {
         super.onSaveInstanceState(outState);
         outState.putInt(COLOR_KEY, mColorARGB);
         outState.putInt(BACKGROUND_COLOR_KEY, mBackgroundColor);
+        outState.putInt(EYEDROPPER_RADIUS_KEY, mEyedropperRadius);
+        outState.putBoolean(WHEEL_MODE_KEY, mIsWheelMode);
+        outState.putString(RENDER_STATE_KEY_KEY, mRenderStateKey);
     }
 
     @Override
@@ -482,8 +599,12 @@ public class ColorChooserFragment extends Fragment {
         mGradientImageView = (ImageView) view.findViewById(R.id.gradientImageView);
         mGradientImageView.requestFocus();
         mResultImageView = (ImageView) view.findViewById(R.id.resultImageView);
+        mResultColorDrawable = new ColorDrawable(mColorARGB);
+        mSourceImageView = (ImageView) view.findViewById(R.id.sourceImageView);
+        mSuggestedColorsView = (SwatchGridView) view.findViewById(R.id.suggestedColorsGridView);
         mHueSeekBar = (SeekBar) view.findViewById(R.id.hueSeekBar);
         mOpacitySeekBar = (SeekBar) view.findViewById(R.id.opacitySeekBar);
+
         mAlphaEditText = (EditText) view.findViewById(R.id.alphaEditText);
         mRedEditText = (EditText) view.findViewById(R.id.redEditText);
         mGreenEditText = (EditText) view.findViewById(R.id.greenEditText);
@@ -528,119 +649,52 @@ public class ColorChooserFragment extends Fragment {
             }
         }
 
-        // set up the hue SeekBar
-        mHueSeekBar.setProgress((int) mColorHSV[0]);
-        mHueSeekBar.getViewTreeObserver().addOnGlobalLayoutListener(
-                new ViewTreeObserver.OnGlobalLayoutListener() {
-                    @Override
-                    public void onGlobalLayout() {
-                        new HueSeekBarBackgroundWorker(mHueSeekBar).executeOnExecutor(
-                                AsyncTask.THREAD_POOL_EXECUTOR);
-
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                            mHueSeekBar.getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                        } else {
-                            //noinspection deprecation
-                            mHueSeekBar.getViewTreeObserver().removeGlobalOnLayoutListener(this);
-                        }
-                    }
-                });
+        // find the render state left behind by the instance we're replacing (if any), and show the
+        // Bitmaps it has right away.  the layout listener will only start new workers if the
+        // views turn out to have a different size than the Bitmaps
+        mRenderState = findRenderState();
+        mRenderState.mFragment = this;
+        installRenderedBitmaps();
+
+        // set up the hue SeekBar.  in wheel mode it sets the value instead, and its background is
+        // a simple gradient that needs no rendering
+        if (mIsWheelMode) {
+            mHueSeekBar.setMax(VALUE_SEEK_BAR_MAX);
+            mHueSeekBar.setContentDescription(
+                    getString(R.string.color_chooser_value_content_description));
+        }
+
+        updateLevelSeekBar();
+        mHueSeekBar.addOnLayoutChangeListener(mLayoutChangeListener);
         mHueSeekBar.setOnSeekBarChangeListener(mSeekBarChangeListener);
         mHueSeekBar.setOnTouchListener(mTouchListener);
 
         // set up the opacity SeekBar
         mOpacitySeekBar.setProgress(Color.alpha(mColorARGB));
-        mOpacitySeekBar.getViewTreeObserver().addOnGlobalLayoutListener(
-                new ViewTreeObserver.OnGlobalLayoutListener() {
-                    @Override
-                    public void onGlobalLayout() {
-                        int width = mOpacitySeekBar.getWidth();
-                        int height = mOpacitySeekBar.getHeight();
-
-                        if (mOpacitySeekBar instanceof VerticalSeekBar) {
-                            mOpacitySeekBarDrawingRect = new Rect(
-                                    (int) (width * BACKGROUND_PORTION),
-                                    mOpacitySeekBar.getThumbOffset(),
-                                    (int) (width * (1.0 - BACKGROUND_PORTION)),
-                                    height - mOpacitySeekBar.getThumbOffset());
-                        } else {
-                            mOpacitySeekBarDrawingRect = new Rect(
-                                    mOpacitySeekBar.getThumbOffset(),
-                                    (int) (height * BACKGROUND_PORTION),
-                                    width - mOpacitySeekBar.getThumbOffset(),
-                                    (int) (height * (1.0 - BACKGROUND_PORTION)));
-                        }
-
-                        mOpacitySeekBarBackgroundWorker = new OpacitySeekBarBackgroundWorker(
-                                mOpacitySeekBar, mOpacitySeekBarDrawingRect, mBackgroundColor, null,
-                                mHandler);
-                        mOpacitySeekBarBackgroundWorker.executeOnExecutor(
-                                AsyncTask.THREAD_POOL_EXECUTOR, mColorARGB);
-
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                            mOpacitySeekBar.getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                        } else {
-                            //noinspection deprecation
-                            mOpacitySeekBar.getViewTreeObserver().removeGlobalOnLayoutListener(this);
-                        }
-                    }
-                });
-
+        mOpacitySeekBar.addOnLayoutChangeListener(mLayoutChangeListener);
         mOpacitySeekBar.setOnSeekBarChangeListener(mSeekBarChangeListener);
         mOpacitySeekBar.setOnTouchListener(mTouchListener);
 
         // set up the result ImageView
-        mResultImageView.getViewTreeObserver().addOnGlobalLayoutListener(
-                new ViewTreeObserver.OnGlobalLayoutListener() {
-                    @Override
-                    public void onGlobalLayout() {
-                        int width = mResultImageView.getWidth();
-                        int height = mResultImageView.getHeight();
-                        mResultImageViewDrawingRect = new Rect(
-                                (int) (width * BACKGROUND_PORTION),
-                                (int) (height * BACKGROUND_PORTION),
-                                (int) (width * (1.0 - BACKGROUND_PORTION)),
-                                (int) (height * (1.0 - BACKGROUND_PORTION)));
-
-                        mResultImageViewBackgroundWorker = new ResultImageViewBackgroundWorker(
-                                mResultImageView, mResultImageViewDrawingRect, mBackgroundColor,
-                                null, mHandler);
-                        mResultImageViewBackgroundWorker.executeOnExecutor(
-                                AsyncTask.THREAD_POOL_EXECUTOR, mColorARGB);
-
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                            mResultImageView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                        } else {
-                            //noinspection deprecation
-                            mResultImageView.getViewTreeObserver().removeGlobalOnLayoutListener(this);
-                        }
-                    }
-                });
+        mResultImageView.addOnLayoutChangeListener(mLayoutChangeListener);
         mResultImageView.setOnTouchListener(mTouchListener);
 
         // set up the gradient view. the handler will create the GradientImageViewBackgroundWorker
-        // when this worker is finished
-        mGradientImageView.getViewTreeObserver().addOnGlobalLayoutListener(
-                new ViewTreeObserver.OnGlobalLayoutListener() {
-                    @Override
-                    public void onGlobalLayout() {
-                        mGradientBitmapBackgroundWorker = new GradientBitmapBackgroundWorker(
-                                mGradientImageView.getWidth(), mGradientImageView.getHeight(),
-                                mHandler);
-                        mGradientBitmapBackgroundWorker.executeOnExecutor(
-                                AsyncTask.THREAD_POOL_EXECUTOR, mColorHSV[0]);
-
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                            mGradientImageView.getViewTreeObserver().removeOnGlobalLayoutListener(this);
-                        } else {
-                            //noinspection deprecation
-                            mGradientImageView.getViewTreeObserver().removeGlobalOnLayoutListener(this);
-                        }
-                    }
-                });
-
+        // when the gradient is finished
+        mGradientImageView.addOnLayoutChangeListener(mLayoutChangeListener);
         mGradientImageView.setOnTouchListener(mTouchListener);
 
+        // set up the source ImageView.  the source Bitmap isn't saved with the instance state, but
+        // the render state keeps it (and its summed-area table) across configuration changes
+        if (mSourceBitmap == null) {
+            mSourceBitmap = mRenderState.mSourceBitmap;
+        }
+
+        installSourceBitmap();
+        mSourceImageView.setOnTouchListener(mTouchListener);
+        mSuggestedColorsView.setCheckerboardBackgroundColor(mBackgroundColor);
+        mSuggestedColorsView.setOnSwatchSelectedListener(mSuggestedColorListener);
+
         // set up the ARGB views
         setARGB();
         mAlphaEditText.setOnFocusChangeListener(mARGBChangeListener);
@@ -649,6 +703,62 @@ public class ColorChooserFragment extends Fragment {
         mBlueEditText.setOnFocusChangeListener(mARGBChangeListener);
     }
 
+    @Override
+    public void onResume() {
+        super.onResume();
+        mIsInForeground = true;
+        ColorChooserRenderEngine.updatePriorities();
+    }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        mIsInForeground = false;
+        ColorChooserRenderEngine.updatePriorities();
+    }
+
+    @Override
+    public void onHiddenChanged(boolean hidden) {
+        super.onHiddenChanged(hidden);
+        ColorChooserRenderEngine.updatePriorities();
+    }
+
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        // don't redraw for a size the views will never be shown at
+        mHueSeekBar.removeCallbacks(mHueSeekBarSizeChangedRunnable);
+        mOpacitySeekBar.removeCallbacks(mOpacitySeekBarSizeChangedRunnable);
+        mResultImageView.removeCallbacks(mResultImageViewSizeChangedRunnable);
+        mGradientImageView.removeCallbacks(mGradientImageViewSizeChangedRunnable);
+
+        // any workers still running will leave their results in the render state for the next
+        // view hierarchy
+        if ((mRenderState != null) && (mRenderState.mFragment == this)) {
+            mRenderState.mFragment = null;
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+
+        // unless we're coming right back after a configuration change, nobody needs the render
+        // state anymore
+        Activity activity = getActivity();
+
+        if ((mRenderState != null) && (activity != null) && !activity.isChangingConfigurations()) {
+            mRenderState.cancelWorkers();
+
+            // if the Activity is finishing the render state goes away with it
+            if (!activity.isFinishing()) {
+                activity.getFragmentManager().beginTransaction().remove(mRenderState)
+                        .commitAllowingStateLoss();
+            }
+        }
+    }
+
     @Override
     public void onAttach(Activity activity) {
         super.onAttach(activity);
@@ -673,72 +783,813 @@ public class ColorChooserFragment extends Fragment {
     }
 
     /**
-     * sets the EditText fields with the current ARGB values
+     * Sets the color shown by this fragment, for instance to undo a change.  Only what depends on
+     * the parts of the color that changed is redrawn: a new opacity alone just moves the opacity
+     * SeekBar, a new saturation or value also moves the selected color circle and redraws the
+     * opacity SeekBar, and only a new hue (or a new value in wheel mode) needs a new gradient,
+     * which comes from the cache if it's been drawn at this size before.  Gradients are drawn for
+     * whole degrees of hue (and wheels for steps of the value SeekBar), so nearby colors share
+     * one, and while a redraw of the circle or the opacity SeekBar is running further changes
+     * wait for it and are drawn together.  That makes it cheap enough to call on every frame of
+     * an animation between two colors.  The
+     * {@link OnFragmentInteractionListener} isn't called.  Must be called from the UI thread.
+     * @param color The color in AARRGGBB format
      */
-    private void setARGB() {
-        mAlphaEditText.setText(Integer.toString(Color.alpha(mColorARGB)));
-        mRedEditText.setText(Integer.toString(Color.red(mColorARGB)));
-        mGreenEditText.setText(Integer.toString(Color.green(mColorARGB)));
-        mBlueEditText.setText(Integer.toString(Color.blue(mColorARGB)));
+    public void setColor(int color) {
+        // if onCreate() hasn't run yet it will read the color from the arguments
+        Bundle args = getArguments();
+
+        if (args != null) {
+            args.putInt(COLOR_KEY, color);
+        }
+
+        if (color == mColorARGB) {
+            return;
+        }
+
+        int oldARGB = mColorARGB;
+        float oldLevel = gradientLevel(mColorHSV, mIsWheelMode);
+        float oldHue = mColorHSV[0];
+        mColorARGB = color;
+        Color.colorToHSV(mColorARGB, mColorHSV);
+
+        // grays have no hue of their own, so keep the one the gradient already shows
+        if ((mColorHSV[1] == 0) || (mColorHSV[2] == 0)) {
+            mColorHSV[0] = oldHue;
+        }
+
+        if ((mRenderState == null) || (mRenderState.mFragment != this)) {
+            // there are no views yet...they'll be set up from the new color
+            return;
+        }
+
+        // the opacity SeekBar, result ImageView and ARGB EditTexts always change
+        mOpacitySeekBar.setProgress(Color.alpha(mColorARGB));
+        mResultColorDrawable.setColor(mColorARGB);
+        setARGB();
+
+        // the opacity SeekBar shows every opacity of the color, so if only the opacity changed
+        // there's nothing to redraw
+        if ((mColorARGB & 0x00ffffff) == (oldARGB & 0x00ffffff)) {
+            return;
+        }
+
+        updateLevelSeekBar();
+        startOpacitySeekBarBackgroundWorker();
+
+        if (gradientLevel(mColorHSV, mIsWheelMode) != oldLevel) {
+            startGradientBitmapBackgroundWorker();
+        } else {
+            // same gradient, different place on it
+            startGradientImageViewBackgroundWorker();
+        }
     }
 
     /**
-     * sets up the gradient
+     * Sets an image for the user to pick colors from.  The image is shown below the other views;
+     * touching or dragging over it sets the color to the average of the pixels around the touch
+     * (see {@link #setEyedropperRadius(int)}), keeping the current opacity.  A summed-area table of
+     * the image is built in the background first, so the average takes the same short time however
+     * large the radius or the image.  A strip of colors suggested by the image is also shown, first
+     * from a sample of its pixels and then from all of them.  The image survives configuration
+     * changes but isn't saved with the instance state, so it has to be set again if the process is
+     * restarted.  Must be called from the UI thread.
+     * @param bitmap The image, or <code>null</code> to remove it
      */
+    public void setSourceBitmap(@Nullable Bitmap bitmap) {
+        mSourceBitmap = bitmap;
+
+        if (mRenderState != null) {
+            installSourceBitmap();
+        }
+    }
 
     /**
-     * Activities that implement this interface will receive callbacks when the lists change.
+     * Gets the image the user can pick colors from
+     * @return The image, or <code>null</code> if there isn't one
      */
-    public interface OnFragmentInteractionListener {
-        /**
-         * Called when the selected color changes.
-         *
-         * @param color The newly-selected color in AARRGGBB format.
-         */
-        public void onFragmentInteraction(int color);
+    @Nullable
+    public Bitmap getSourceBitmap() {
+        return mSourceBitmap;
     }
 
     /**
-     * Provides a mechanism to create a ListChooserFragment.
+     * Sets how far around the touched point the eyedropper averages the source image.  The
+     * default is 4.
+     * @param radius The radius in pixels of the source image; 0 picks the touched pixel alone
      */
-    public static class Builder {
-        // Static fields
-        // Instance fields
+    public void setEyedropperRadius(int radius) {
+        if (radius < 0) {
+            throw new IllegalArgumentException("ColorChooserFragment.setEyedropperRadius(): " +
+                    "the radius can't be negative");
+        }
 
-        /**
-         * Arguments for the constructor.
-         */
-        @NonNull
-        private final Bundle args;
+        mEyedropperRadius = radius;
+    }
 
-        // Constructors
+    /**
+     * Gets how far around the touched point the eyedropper averages the source image
+     * @return The radius in pixels of the source image
+     */
+    public int getEyedropperRadius() {
+        return mEyedropperRadius;
+    }
 
-        /**
-         * Creates a new instance of the ListChooserFragment builder.
-         */
-        public Builder() {
-            args = new Bundle();
+    /**
+     * Renders the parts of the color chooser that take the longest to draw (the hue SeekBar
+     * background, the checkerboard backgrounds and the gradient for the hue of the initial color)
+     * at the lowest priority of the shared {@link ColorChooserRenderEngine} and keeps them in a
+     * process-wide cache, so the next ColorChooserFragment shown at this size can display them
+     * right away.  A fragment that needs one of these assets while it's still being drawn waits
+     * for the same job rather than starting its own.  A good time to call
+     * this is when the app goes idle after startup.  Must be called from the UI thread.
+     * <p><p>The sizes of the individual views are found by laying out an offscreen copy of the
+     * fragment's layout, so the context must have the same theme and configuration the fragment
+     * will be shown in (typically the hosting Activity).  The assets are drawn for the theme
+     * background color, so they won't be used by fragments given a different color through
+     * {@link Builder#setBackgroundColor(int)}.
+     * @param context The context in which the fragment will be shown
+     * @param sizeHint The size in pixels of the area the fragment will be shown in: its width in
+     *                 portrait orientation or its height in landscape orientation
+     * @param initialColor The color the fragment will be created with
+     */
+    public static void prewarm(@NonNull Context context, int sizeHint, int initialColor) {
+        // lay out a copy of the fragment's views to see how big everything will be
+        View view = LayoutInflater.from(context).inflate(R.layout.color_chooser_fragment, null,
+                false);
+        int unspecifiedMeasureSpec = View.MeasureSpec.makeMeasureSpec(0,
+                View.MeasureSpec.UNSPECIFIED);
+        int sizeHintMeasureSpec = View.MeasureSpec.makeMeasureSpec(sizeHint,
+                View.MeasureSpec.EXACTLY);
+
+        if (context.getResources().getConfiguration().orientation ==
+                Configuration.ORIENTATION_LANDSCAPE) {
+            view.measure(unspecifiedMeasureSpec, sizeHintMeasureSpec);
+        } else {
+            view.measure(sizeHintMeasureSpec, unspecifiedMeasureSpec);
         }
 
-        // Static methods
-        // Instance methods
+        view.layout(0, 0, view.getMeasuredWidth(), view.getMeasuredHeight());
 
-        /**
-         * Creates a {@link com.sailbravado.androiduilibrary.ColorChooserFragment} with the
-         * arguments supplied to this builder.
-         * @return The ColorChooserFragment
-         */
-        @NonNull
-        public ColorChooserFragment create() {
-            ColorChooserFragment fragment = new ColorChooserFragment();
-            fragment.setArguments(args);
-            return fragment;
+        int backgroundColor;
+
+        try {
+            backgroundColor = ColorUtils.themeBackgroundColor(context.getTheme());
+        } catch (RuntimeException e) {
+            backgroundColor = BACKGROUND_COLOR_DEFAULT;
         }
 
-        /**
-         * Sets the background color for the opacity SeekBar and result ImageView.  The default is
-         * the theme background color, or Color.WHITE if the theme didn't specify a background color
-         * @param backgroundColor The background color.
+        float[] hsv = new float[3];
+        Color.colorToHSV(initialColor, hsv);
+        SeekBar hueSeekBar = (SeekBar) view.findViewById(R.id.hueSeekBar);
+        View resultImageView = view.findViewById(R.id.resultImageView);
+        View gradientImageView = view.findViewById(R.id.gradientImageView);
+        int gradientWidth = gradientImageView.getWidth();
+        int gradientHeight = gradientImageView.getHeight();
+
+        // nobody is waiting for these, so they run after everything else
+        if ((hueSeekBar.getWidth() > 0) && (hueSeekBar.getHeight() > 0) &&
+                (ColorChooserAssetCache.get(ColorChooserAssetCache.hueSeekBarKey(
+                        hueSeekBar.getWidth(), hueSeekBar.getHeight(), hueSeekBar.getThumbOffset(),
+                        hueSeekBar instanceof VerticalSeekBar)) == null)) {
+            ColorChooserRenderEngine.submit(new HueSeekBarBackgroundWorker(hueSeekBar), null);
+        }
+
+        ColorChooserRenderEngine.submit(new PrewarmOpacityCheckerboardWorker(
+                (SeekBar) view.findViewById(R.id.opacitySeekBar), backgroundColor), null);
+
+        if ((resultImageView.getWidth() > 0) && (resultImageView.getHeight() > 0) &&
+                (ColorChooserAssetCache.get(ColorChooserAssetCache.resultCheckerboardKey(
+                        resultImageView.getWidth(), resultImageView.getHeight(),
+                        backgroundColor)) == null)) {
+            ColorChooserRenderEngine.submit(new ResultCheckerboardWorker(
+                    resultImageView.getWidth(), resultImageView.getHeight(), backgroundColor),
+                    null);
+        }
+
+        float hue = gradientLevel(hsv, false);
+
+        if ((gradientWidth > 0) && (gradientHeight > 0) &&
+                (ColorChooserAssetCache.get(ColorChooserAssetCache.gradientKey(gradientWidth,
+                        gradientHeight, hue)) == null)) {
+            ColorChooserRenderEngine.submit(new GradientBitmapBackgroundWorker(gradientWidth,
+                    gradientHeight, false, hue, false), null);
+        }
+    }
+
+    /**
+     * Turns on (or off) a cache of the rendered backgrounds and gradients in the app's cache
+     * directory, so that after the process is restarted a ColorChooserFragment can show them on
+     * its first frame instead of drawing them again.  The files are raw pixels, so they're quick to
+     * load but not small; the cache is kept to a few megabytes.  It's off by default.  A good place
+     * to call this is in <code>Application.onCreate()</code>.
+     * @param context Any context in the app
+     * @param isEnabled If <code>true</code> the disk cache is used
+     */
+    public static void setDiskCacheEnabled(@NonNull Context context, boolean isEnabled) {
+        ColorChooserDiskCache.setEnabled(context, isEnabled);
+    }
+
+    /**
+     * Tells the listener (if any) about a change the user made to the color
+     */
+    private void notifyColorChanged() {
+        if (mListener != null) {
+            mListener.onFragmentInteraction(mColorARGB);
+        }
+    }
+
+    /**
+     * sets the EditText fields with the current ARGB values
+     */
+    private void setARGB() {
+        mAlphaEditText.setText(Integer.toString(Color.alpha(mColorARGB)));
+        mRedEditText.setText(Integer.toString(Color.red(mColorARGB)));
+        mGreenEditText.setText(Integer.toString(Color.green(mColorARGB)));
+        mBlueEditText.setText(Integer.toString(Color.blue(mColorARGB)));
+    }
+
+    /**
+     * Finds the {@link RenderStateFragment} that belongs to this fragment, creating it if this is
+     * the first time through.  The render state is kept by the Activity's FragmentManager since
+     * nested fragments can't be retained.
+     * @return The render state
+     */
+    @NonNull
+    private RenderStateFragment findRenderState() {
+        String tag = RENDER_STATE_TAG_PREFIX + mRenderStateKey;
+        FragmentManager fragmentManager = getActivity().getFragmentManager();
+        RenderStateFragment state = (RenderStateFragment) fragmentManager.findFragmentByTag(tag);
+
+        if (state == null) {
+            state = new RenderStateFragment();
+            fragmentManager.beginTransaction().add(state, tag).commit();
+
+            // add it now so the next lookup finds it
+            try {
+                fragmentManager.executePendingTransactions();
+            } catch (IllegalStateException e) {
+                // we're being added by a transaction the FragmentManager is executing right now.
+                // it runs the one we just committed before it returns
+            }
+        }
+
+        return state;
+    }
+
+    /**
+     * Finds what to run when a view has changed size
+     * @param view One of the views that shows rendered Bitmaps
+     * @return The Runnable that makes sure the view's Bitmaps are drawn for its size
+     */
+    @NonNull
+    private Runnable getSizeChangedRunnable(@NonNull View view) {
+        if (view == mHueSeekBar) {
+            return mHueSeekBarSizeChangedRunnable;
+        } else if (view == mOpacitySeekBar) {
+            return mOpacitySeekBarSizeChangedRunnable;
+        } else if (view == mResultImageView) {
+            return mResultImageViewSizeChangedRunnable;
+        } else {
+            return mGradientImageViewSizeChangedRunnable;
+        }
+    }
+
+    /**
+     * Makes sure the hue SeekBar background is drawn for the SeekBar's current size
+     */
+    private void onHueSeekBarSizeChanged() {
+        RenderStateFragment state = mRenderState;
+        int width = mHueSeekBar.getWidth();
+        int height = mHueSeekBar.getHeight();
+        boolean isVertical = mHueSeekBar instanceof VerticalSeekBar;
+
+        if (!mIsWheelMode && !hasSize(state.mHueSeekBarBitmap,
+                ColorChooserBitmaps.hueSeekBarBitmapWidth(width, isVertical),
+                ColorChooserBitmaps.hueSeekBarBitmapHeight(height, isVertical)) &&
+                ((state.mHueSeekBarBackgroundWorker == null) ||
+                (state.mHueSeekBarBackgroundWorker.mWidth != width) ||
+                (state.mHueSeekBarBackgroundWorker.mHeight != height))) {
+            ColorChooserRenderEngine.cancel(state.mHueSeekBarBackgroundWorker, state.mHandler);
+            state.mHueSeekBarBackgroundWorker = null;
+
+            // only the first show is worth waiting for the disk cache
+            String key = ColorChooserAssetCache.hueSeekBarKey(width, height,
+                    mHueSeekBar.getThumbOffset(), isVertical);
+            Bitmap cachedBitmap = (state.mHueSeekBarBitmap == null) ?
+                    ColorChooserAssetCache.load(key) : ColorChooserAssetCache.get(key);
+
+            if (cachedBitmap != null) {
+                state.mHueSeekBarBitmap = cachedBitmap;
+                setSeekBarBackground(mHueSeekBar, cachedBitmap);
+            } else {
+                // another picker the same size may already be drawing this
+                state.mHueSeekBarBackgroundWorker =
+                        (HueSeekBarBackgroundWorker) ColorChooserRenderEngine.submit(
+                                new HueSeekBarBackgroundWorker(mHueSeekBar), state.mHandler);
+            }
+        }
+    }
+
+    /**
+     * Makes sure the opacity SeekBar background is drawn for the SeekBar's current size
+     */
+    private void onOpacitySeekBarSizeChanged() {
+        RenderStateFragment state = mRenderState;
+        int width = mOpacitySeekBar.getWidth();
+        int height = mOpacitySeekBar.getHeight();
+
+        if (!hasSize(state.mOpacitySeekBarBitmap, width, height) &&
+                ((state.mOpacitySeekBarBackgroundWorker == null) ||
+                (state.mOpacitySeekBarBackgroundWorker.mWidth != width) ||
+                (state.mOpacitySeekBarBackgroundWorker.mHeight != height))) {
+            if (mOpacitySeekBar instanceof VerticalSeekBar) {
+                state.mOpacitySeekBarDrawingRect = new Rect(
+                        (int) (width * BACKGROUND_PORTION),
+                        mOpacitySeekBar.getThumbOffset(),
+                        (int) (width * (1.0 - BACKGROUND_PORTION)),
+                        height - mOpacitySeekBar.getThumbOffset());
+            } else {
+                state.mOpacitySeekBarDrawingRect = new Rect(
+                        mOpacitySeekBar.getThumbOffset(),
+                        (int) (height * BACKGROUND_PORTION),
+                        width - mOpacitySeekBar.getThumbOffset(),
+                        (int) (height * (1.0 - BACKGROUND_PORTION)));
+            }
+
+            // the old checkerboard is the wrong size, but there may be one the right size in the
+            // cache.  only the first show is worth waiting for the disk cache
+            String key = ColorChooserAssetCache.opacityCheckerboardKey(width, height,
+                    mOpacitySeekBar.getThumbOffset(), mOpacitySeekBar instanceof VerticalSeekBar,
+                    mBackgroundColor);
+            state.mOpacitySeekBarBackgroundBitmap = (state.mOpacitySeekBarBitmap == null) ?
+                    ColorChooserAssetCache.load(key) : ColorChooserAssetCache.get(key);
+
+            // a worker for the old size is no use, so don't wait for it
+            ColorChooserRenderEngine.cancel(state.mOpacitySeekBarBackgroundWorker, state.mHandler);
+            state.mOpacitySeekBarBackgroundWorker = null;
+            startOpacitySeekBarBackgroundWorker();
+        }
+    }
+
+    /**
+     * Makes sure the result ImageView checkerboard is drawn for the ImageView's current size
+     */
+    private void onResultImageViewSizeChanged() {
+        RenderStateFragment state = mRenderState;
+        int width = mResultImageView.getWidth();
+        int height = mResultImageView.getHeight();
+
+        if (!hasSize(state.mResultImageViewBackgroundBitmap, width, height) &&
+                ((state.mResultCheckerboardWorker == null) ||
+                (state.mResultCheckerboardWorker.mWidth != width) ||
+                (state.mResultCheckerboardWorker.mHeight != height))) {
+            state.mResultImageViewDrawingRect = new Rect(
+                    (int) (width * BACKGROUND_PORTION),
+                    (int) (height * BACKGROUND_PORTION),
+                    (int) (width * (1.0 - BACKGROUND_PORTION)),
+                    (int) (height * (1.0 - BACKGROUND_PORTION)));
+
+            ColorChooserRenderEngine.cancel(state.mResultCheckerboardWorker, state.mHandler);
+            state.mResultCheckerboardWorker = null;
+
+            // the old checkerboard is the wrong size, but there may be one the right size in the
+            // cache.  only the first show is worth waiting for the disk cache
+            String key = ColorChooserAssetCache.resultCheckerboardKey(width, height,
+                    mBackgroundColor);
+            state.mResultImageViewBackgroundBitmap =
+                    (state.mResultImageViewBackgroundBitmap == null) ?
+                    ColorChooserAssetCache.load(key) : ColorChooserAssetCache.get(key);
+
+            if (state.mResultImageViewBackgroundBitmap != null) {
+                installResultImageViewLayers();
+            } else {
+                // another picker the same size may already be drawing this
+                state.mResultCheckerboardWorker =
+                        (ResultCheckerboardWorker) ColorChooserRenderEngine.submit(
+                                new ResultCheckerboardWorker(width, height, mBackgroundColor),
+                                state.mHandler);
+            }
+        }
+    }
+
+    /**
+     * Makes sure the gradient (or wheel) is drawn for the gradient ImageView's current size
+     */
+    private void onGradientImageViewSizeChanged() {
+        RenderStateFragment state = mRenderState;
+        int width = mGradientImageView.getWidth();
+        int height = mGradientImageView.getHeight();
+
+        if (hasSize(state.mGradientImageViewBackgroundBitmap, width, height) ||
+                ((state.mGradientBitmapBackgroundWorker != null) &&
+                (state.mGradientBitmapBackgroundWorker.mWidth == width) &&
+                (state.mGradientBitmapBackgroundWorker.mHeight == height))) {
+            // the gradient is (or soon will be) the right size, but the selected color circle
+            // may have been missed while we were being recreated
+            if (state.mGradientImageViewBitmapIsStale) {
+                startGradientImageViewBackgroundWorker();
+            }
+        } else {
+            showNearestGradient(width, height);
+            startGradientBitmapBackgroundWorker();
+        }
+    }
+
+    /**
+     * If the gradient ImageView has nothing to show, shows the cached gradient for the current hue
+     * (or wheel for the current value) that's closest to the given size, scaled, until one the
+     * right size is drawn
+     * @param width The width of the gradient ImageView
+     * @param height The height of the gradient ImageView
+     */
+    private void showNearestGradient(int width, int height) {
+        if (mGradientImageView.getDrawable() != null) {
+            return;
+        }
+
+        float level = gradientLevel(mColorHSV, mIsWheelMode);
+        Bitmap nearestBitmap = mIsWheelMode ?
+                ColorChooserAssetCache.getNearestWheel(width, height, level) :
+                ColorChooserAssetCache.getNearestGradient(width, height, level);
+
+        if (nearestBitmap != null) {
+            mGradientImageView.setImageBitmap(nearestBitmap);
+        }
+    }
+
+    /**
+     * Puts whatever Bitmaps the render state already has on the views
+     */
+    private void installRenderedBitmaps() {
+        RenderStateFragment state = mRenderState;
+
+        if (!mIsWheelMode && (state.mHueSeekBarBitmap != null)) {
+            setSeekBarBackground(mHueSeekBar, state.mHueSeekBarBitmap);
+        }
+
+        if (state.mOpacitySeekBarBitmap != null) {
+            setSeekBarBackground(mOpacitySeekBar, state.mOpacitySeekBarBitmap);
+        }
+
+        if ((state.mResultImageViewBackgroundBitmap != null) &&
+                (state.mResultImageViewDrawingRect != null)) {
+            installResultImageViewLayers();
+        }
+
+        if (state.mGradientImageViewBitmap != null) {
+            mGradientImageView.setImageBitmap(state.mGradientImageViewBitmap);
+        }
+    }
+
+    /**
+     * Returns the level a gradient is drawn and cached at for a color: the hue rounded to a whole
+     * degree, or for the wheel the value rounded to a step of the value SeekBar.  Without the
+     * rounding, colors set in code or picked with the eyedropper would almost never find their
+     * gradient in the cache.
+     * @param hsv The hue, saturation and value of the color
+     * @param isWheel If <code>true</code> the level of the wheel is wanted
+     * @return The hue of the gradient, or the value of the wheel
+     */
+    private static float gradientLevel(@NonNull float[] hsv, boolean isWheel) {
+        return quantizeLevel(isWheel ? hsv[2] : hsv[0], isWheel);
+    }
+
+    /**
+     * Rounds a hue to a whole degree, or for the wheel a value to a step of the value SeekBar
+     * @param level The hue, or the value for the wheel
+     * @param isWheel If <code>true</code> the level is a value
+     * @return The rounded level
+     */
+    private static float quantizeLevel(float level, boolean isWheel) {
+        return isWheel ? Math.round(level * VALUE_SEEK_BAR_MAX) / (float) VALUE_SEEK_BAR_MAX :
+                Math.round(level);
+    }
+
+    /**
+     * Determines whether a Bitmap exists and has the given size
+     * @param bitmap The Bitmap to check
+     * @param width The width the Bitmap should have
+     * @param height The height the Bitmap should have
+     * @return <code>true</code> if the Bitmap is non-null and is the given size
+     */
+    private static boolean hasSize(@Nullable Bitmap bitmap, int width, int height) {
+        return (bitmap != null) && (bitmap.getWidth() == width) && (bitmap.getHeight() == height);
+    }
+
+    /**
+     * Sets a Bitmap as the background of a SeekBar
+     * @param seekBar The SeekBar
+     * @param bitmap The background Bitmap
+     */
+    private static void setSeekBarBackground(@NonNull SeekBar seekBar, @NonNull Bitmap bitmap) {
+        setSeekBarBackground(seekBar, new BitmapDrawable(seekBar.getResources(), bitmap));
+    }
+
+    /**
+     * Sets a Drawable as the background of a SeekBar
+     * @param seekBar The SeekBar
+     * @param drawable The background Drawable
+     */
+    private static void setSeekBarBackground(@NonNull SeekBar seekBar,
+                                             @NonNull Drawable drawable) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            seekBar.setBackground(drawable);
+        } else {
+            //noinspection deprecation
+            seekBar.setBackgroundDrawable(drawable);
+        }
+    }
+
+    /**
+     * Sets the hue SeekBar from the current color.  In wheel mode the hue SeekBar sets the value,
+     * and its background changes with the hue and saturation.
+     */
+    private void updateLevelSeekBar() {
+        if (!mIsWheelMode) {
+            mHueSeekBar.setProgress((int) mColorHSV[0]);
+            return;
+        }
+
+        mHueSeekBar.setProgress(Math.round(mColorHSV[2] * VALUE_SEEK_BAR_MAX));
+        updateValueSeekBarBackground();
+    }
+
+    /**
+     * In wheel mode, sets the background of the value SeekBar to run from black to the current
+     * hue and saturation at full value.  Like the hue SeekBar background, it leaves the thumb
+     * offsets at either end empty.
+     */
+    private void updateValueSeekBarBackground() {
+        int thumbOffset = mHueSeekBar.getThumbOffset();
+        mValueSeekBarHSV[0] = mColorHSV[0];
+        mValueSeekBarHSV[1] = mColorHSV[1];
+        mValueSeekBarHSV[2] = 1;
+        int[] colors = new int[] {Color.BLACK, Color.HSVToColor(mValueSeekBarHSV)};
+        Drawable background;
+
+        if (mHueSeekBar instanceof VerticalSeekBar) {
+            background = new InsetDrawable(new GradientDrawable(
+                    GradientDrawable.Orientation.BOTTOM_TOP, colors), 0, thumbOffset, 0,
+                    thumbOffset);
+        } else {
+            background = new InsetDrawable(new GradientDrawable(
+                    GradientDrawable.Orientation.LEFT_RIGHT, colors), thumbOffset, 0,
+                    thumbOffset, 0);
+        }
+
+        setSeekBarBackground(mHueSeekBar, background);
+    }
+
+    /**
+     * Shows the source Bitmap (or hides the source ImageView if there isn't one), and starts
+     * workers to build its summed-area table and palette if the render state doesn't have them
+     * for it yet
+     */
+    private void installSourceBitmap() {
+        RenderStateFragment state = mRenderState;
+
+        if (state.mSourceBitmap != mSourceBitmap) {
+            ColorChooserRenderEngine.cancel(state.mSummedAreaTableWorker, state.mHandler);
+            state.mSummedAreaTableWorker = null;
+            state.mSummedAreaTable = null;
+            ColorChooserRenderEngine.cancel(state.mPaletteWorker, state.mHandler);
+            state.mPaletteWorker = null;
+            state.mSuggestedColors = null;
+            state.mSourceBitmap = mSourceBitmap;
+
+            if (mSourceBitmap != null) {
+                state.mSummedAreaTableWorker = new SummedAreaTableWorker(mSourceBitmap);
+                ColorChooserRenderEngine.submit(state.mSummedAreaTableWorker, state.mHandler);
+                state.mPaletteWorker = new PaletteWorker(mSourceBitmap);
+                ColorChooserRenderEngine.submit(state.mPaletteWorker, state.mHandler);
+            }
+        }
+
+        mSourceImageView.setImageBitmap(mSourceBitmap);
+        mSourceImageView.setVisibility((mSourceBitmap != null) ? View.VISIBLE : View.GONE);
+        installSuggestedColors();
+    }
+
+    /**
+     * Shows the suggested colors from the render state, or hides them if there aren't any, either
+     * because the palette isn't ready yet or because the image gave an empty one
+     */
+    private void installSuggestedColors() {
+        int[] colors = mRenderState.mSuggestedColors;
+
+        if ((colors != null) && (colors.length > 0)) {
+            mSuggestedColorsView.setColors(colors);
+            mSuggestedColorsView.setVisibility(View.VISIBLE);
+        } else {
+            mSuggestedColorsView.setVisibility(View.GONE);
+        }
+    }
+
+    /**
+     * Sets the color to the average of the source Bitmap around a point of the source ImageView.
+     * Does nothing if the summed-area table isn't ready yet or the point is off the image.
+     * @param x The x coordinate of the point, relative to the source ImageView
+     * @param y The y coordinate of the point, relative to the source ImageView
+     */
+    private void pickSourceColor(float x, float y) {
+        SummedAreaTable table = mRenderState.mSummedAreaTable;
+        Drawable drawable = mSourceImageView.getDrawable();
+
+        if ((table == null) || (drawable == null) || drawable.getBounds().isEmpty() ||
+                !mSourceImageView.getImageMatrix().invert(mEyedropperMatrix)) {
+            return;
+        }
+
+        // undo the ImageView's scaling, then the density scaling of the drawable
+        Rect bounds = drawable.getBounds();
+        mEyedropperPoint[0] = x - mSourceImageView.getPaddingLeft();
+        mEyedropperPoint[1] = y - mSourceImageView.getPaddingTop();
+        mEyedropperMatrix.mapPoints(mEyedropperPoint);
+        int sourceX = (int) (mEyedropperPoint[0] * table.getSourceWidth() / bounds.width());
+        int sourceY = (int) (mEyedropperPoint[1] * table.getSourceHeight() / bounds.height());
+
+        if ((sourceX < 0) || (sourceX >= table.getSourceWidth()) || (sourceY < 0) ||
+                (sourceY >= table.getSourceHeight())) {
+            return;
+        }
+
+        setColorFromImage(table.averageAround(sourceX, sourceY, mEyedropperRadius));
+    }
+
+    /**
+     * Sets the color to one picked from the source Bitmap, keeping the current opacity
+     * @param color The picked color; its alpha is ignored
+     */
+    private void setColorFromImage(int color) {
+        int newARGB = Color.argb(Color.alpha(mColorARGB), Color.red(color), Color.green(color),
+                Color.blue(color));
+
+        if (newARGB == mColorARGB) {
+            return;
+        }
+
+        setColor(newARGB);
+
+        notifyColorChanged();
+    }
+
+    /**
+     * Starts a worker to draw the opacity SeekBar for the current color.  If a worker is already
+     * at it, the handler starts another one for the latest color when it's done, so a burst of
+     * color changes costs two Bitmaps instead of one each.
+     */
+    private void startOpacitySeekBarBackgroundWorker() {
+        RenderStateFragment state = mRenderState;
+
+        if (state.mOpacitySeekBarDrawingRect == null) {
+            // the SeekBar hasn't been laid out yet...the layout listener will get to it
+            return;
+        }
+
+        if (state.mOpacitySeekBarBackgroundWorker != null) {
+            state.mOpacitySeekBarBitmapIsStale = true;
+            return;
+        }
+
+        state.mOpacitySeekBarBitmapIsStale = false;
+        state.mOpacitySeekBarBackgroundWorker = new OpacitySeekBarBackgroundWorker(mOpacitySeekBar,
+                state.mOpacitySeekBarDrawingRect, mBackgroundColor,
+                state.mOpacitySeekBarBackgroundBitmap, mColorARGB);
+        ColorChooserRenderEngine.submit(state.mOpacitySeekBarBackgroundWorker, state.mHandler);
+    }
+
+    /**
+     * Shows the result ImageView as two layers: the checkerboard from the render state, and the
+     * selected color filling the drawing rectangle on top of it
+     */
+    private void installResultImageViewLayers() {
+        RenderStateFragment state = mRenderState;
+        Bitmap checkerboardBitmap = state.mResultImageViewBackgroundBitmap;
+        Rect drawingRect = state.mResultImageViewDrawingRect;
+        assert (checkerboardBitmap != null) && (drawingRect != null);
+        LayerDrawable layers = new LayerDrawable(new Drawable[] {
+                new BitmapDrawable(mResultImageView.getResources(), checkerboardBitmap),
+                mResultColorDrawable});
+        layers.setLayerInset(1, drawingRect.left, drawingRect.top,
+                checkerboardBitmap.getWidth() - drawingRect.right,
+                checkerboardBitmap.getHeight() - drawingRect.bottom);
+        mResultImageView.setImageDrawable(layers);
+    }
+
+    /**
+     * Starts a worker to build the gradient for the current hue (or the wheel for the current
+     * value), cancelling any worker that's already at it.  The handler will create the
+     * GradientImageViewBackgroundWorker when this worker has something to show.
+     */
+    private void startGradientBitmapBackgroundWorker() {
+        RenderStateFragment state = mRenderState;
+        int width = mGradientImageView.getWidth();
+        int height = mGradientImageView.getHeight();
+        float level = gradientLevel(mColorHSV, mIsWheelMode);
+
+        if ((width == 0) || (height == 0)) {
+            // the ImageView hasn't been laid out yet...the layout listener will get to it
+            return;
+        }
+
+        ColorChooserRenderEngine.cancel(state.mGradientBitmapBackgroundWorker, state.mHandler);
+        state.mGradientBitmapBackgroundWorker = null;
+
+        // if we've drawn this hue (or value) at this size before there's no need to do it again.
+        // this runs on every move of the hue SeekBar, so only the first show waits for the disk
+        // cache...after that the worker looks there
+        String key = mIsWheelMode ? ColorChooserAssetCache.wheelKey(width, height, level) :
+                ColorChooserAssetCache.gradientKey(width, height, level);
+        Bitmap cachedBitmap = (state.mGradientImageViewBackgroundBitmap == null) ?
+                ColorChooserAssetCache.load(key) : ColorChooserAssetCache.get(key);
+
+        if (cachedBitmap != null) {
+            state.mGradientImageViewBackgroundBitmap = cachedBitmap;
+            startGradientImageViewBackgroundWorker();
+            return;
+        }
+
+        // another picker the same size may already be drawing this hue (or value)
+        state.mGradientBitmapBackgroundWorker =
+                (GradientBitmapBackgroundWorker) ColorChooserRenderEngine.submit(
+                        new GradientBitmapBackgroundWorker(width, height, mIsWheelMode, level,
+                                true), state.mHandler);
+    }
+
+    /**
+     * Starts a worker to put the selected color circle on the gradient.  If a worker is already
+     * at it, the handler starts another one for the latest color and gradient when it's done, so
+     * a burst of changes costs two copies of the gradient instead of one each.
+     */
+    private void startGradientImageViewBackgroundWorker() {
+        RenderStateFragment state = mRenderState;
+
+        if (state.mGradientImageViewBackgroundWorker != null) {
+            state.mGradientImageViewBitmapIsStale = true;
+            return;
+        }
+
+        state.mGradientImageViewBitmapIsStale = false;
+        state.mGradientImageViewBackgroundWorker = new GradientImageViewBackgroundWorker(
+                mGradientImageView, state.mGradientImageViewBackgroundBitmap, mColorHSV,
+                mIsWheelMode);
+        ColorChooserRenderEngine.submit(state.mGradientImageViewBackgroundWorker, state.mHandler);
+    }
+
+    /**
+     * Activities that implement this interface will receive callbacks when the lists change.
+     */
+    public interface OnFragmentInteractionListener {
+        /**
+         * Called when the selected color changes.
+         *
+         * @param color The newly-selected color in AARRGGBB format.
+         */
+        public void onFragmentInteraction(int color);
+    }
+
+    /**
+     * Provides a mechanism to create a ListChooserFragment.
+     */
+    public static class Builder {
+        // Static fields
+        // Instance fields
+
+        /**
+         * Arguments for the constructor.
+         */
+        @NonNull
+        private final Bundle args;
+
+        // Constructors
+
+        /**
+         * Creates a new instance of the ListChooserFragment builder.
+         */
+        public Builder() {
+            args = new Bundle();
+        }
+
+        // Static methods
+        // Instance methods
+
+        /**
+         * Creates a {@link com.sailbravado.androiduilibrary.ColorChooserFragment} with the
+         * arguments supplied to this builder.
+         * @return The ColorChooserFragment
+         */
+        @NonNull
+        public ColorChooserFragment create() {
+            ColorChooserFragment fragment = new ColorChooserFragment();
+            fragment.setArguments(args);
+            return fragment;
+        }
+
+        /**
+         * Sets the background color for the opacity SeekBar and result ImageView.  The default is
+         * the theme background color, or Color.WHITE if the theme didn't specify a background color
+         * @param backgroundColor The background color.
          * @return This {@link com.sailbravado.androiduilibrary.ColorChooserFragment.Builder} object
          * to use in chaining calls to set methods.
          */
@@ -759,596 +1610,979 @@ public class ColorChooserFragment extends Fragment {
             args.putInt(COLOR_KEY, color);
             return this;
         }
+
+        /**
+         * Sets how far around the touched point the eyedropper averages the source image.  The
+         * default is 4.
+         * @param radius The radius in pixels of the source image
+         * @return This {@link com.sailbravado.androiduilibrary.ColorChooserFragment.Builder} object
+         * to use in chaining calls to set methods.
+         * @see ColorChooserFragment#setSourceBitmap(Bitmap)
+         */
+        @NonNull
+        public Builder setEyedropperRadius(int radius) {
+            args.putInt(EYEDROPPER_RADIUS_KEY, radius);
+            return this;
+        }
+
+        /**
+         * Sets whether the ColorChooserFragment shows a hue/saturation wheel with a value SeekBar
+         * instead of the default saturation/value gradient with a hue SeekBar.
+         * @param isWheelMode <code>true</code> for the wheel
+         * @return This {@link com.sailbravado.androiduilibrary.ColorChooserFragment.Builder} object
+         * to use in chaining calls to set methods.
+         */
+        @NonNull
+        public Builder setWheelMode(boolean isWheelMode) {
+            args.putBoolean(WHEEL_MODE_KEY, isWheelMode);
+            return this;
+        }
     }
 
     /**
-     * Builds the background for the hue SeekBar in a worker thread.  Since the background for the
-     * hue SeekBar doesn't change, this worker is run just once from onCreateView() and can be
-     * declared static (see
-     * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.OpacitySeekBarBackgroundWorker
-     * OpacityBackgroundWorker} for the approach we use for a changing background).  The execute()
-     * method does not take any parameters.
+     * A UI-less retained Fragment that holds the rendered Bitmaps and the background workers of a
+     * ColorChooserFragment.  Because it survives configuration changes, workers started by one
+     * instance of the ColorChooserFragment deliver their results to the instance that replaces it,
+     * and that instance can show the existing Bitmaps immediately.  This class is public only so
+     * the FragmentManager can instantiate it; applications should not use it directly.
      */
-    private static class HueSeekBarBackgroundWorker extends AsyncTask<Void, Void, Bitmap> {
+    public static class RenderStateFragment extends Fragment {
+        /**
+         * The ColorChooserFragment currently showing this render state, or <code>null</code>
+         * while it's being recreated
+         */
+        @Nullable
+        private ColorChooserFragment mFragment = null;
+        /**
+         * A Handler for background workers to send messages to
+         */
         @NonNull
-        private final WeakReference<SeekBar> mSeekBarReference;
-        private final int mWidth;
-        private final int mHeight;
-        private final int mThumbOffset;
-        private final boolean mIsVertical;
+        private final WorkerMessageHandler mHandler = new WorkerMessageHandler(this);
+        /**
+         * The spectrum background for the hue SeekBar
+         */
+        @Nullable
+        private Bitmap mHueSeekBarBitmap = null;
+        /**
+         * The checkerboard background for the opacity SeekBar
+         */
+        @Nullable
+        private Bitmap mOpacitySeekBarBackgroundBitmap = null;
+        /**
+         * The finished background (checkerboard plus opacities) for the opacity SeekBar
+         */
+        @Nullable
+        private Bitmap mOpacitySeekBarBitmap = null;
+        /**
+         * The inside rectangle in which to draw the gradient of opacity for the selected color
+         */
+        @Nullable
+        private Rect mOpacitySeekBarDrawingRect = null;
+        /**
+         * If <code>true</code> the color changed while the opacity SeekBar was being drawn
+         */
+        private boolean mOpacitySeekBarBitmapIsStale = false;
+        /**
+         * The checkerboard background for the result ImageView
+         */
+        @Nullable
+        private Bitmap mResultImageViewBackgroundBitmap = null;
+        /**
+         * The inside rectangle in which to draw the resultant selected color
+         */
+        @Nullable
+        private Rect mResultImageViewDrawingRect = null;
+        /**
+         * The Bitmap with saturation and value settings for the current hue
+         */
+        @Nullable
+        private Bitmap mGradientImageViewBackgroundBitmap = null;
+        /**
+         * The finished Bitmap (gradient plus selected color circle) for the gradient ImageView
+         */
+        @Nullable
+        private Bitmap mGradientImageViewBitmap = null;
+        /**
+         * If <code>true</code> the color or gradient changed while the selected color circle was
+         * being drawn, or a new gradient arrived while no ColorChooserFragment was around to put
+         * the circle on it
+         */
+        private boolean mGradientImageViewBitmapIsStale = false;
+        /**
+         * When non-null there's a thread working on building a background for the hue SeekBar
+         */
+        @Nullable
+        private HueSeekBarBackgroundWorker mHueSeekBarBackgroundWorker = null;
+        /**
+         * When non-null there's a thread working on building a background for the opacity SeekBar
+         */
+        @Nullable
+        private OpacitySeekBarBackgroundWorker mOpacitySeekBarBackgroundWorker = null;
+        /**
+         * When non-null there's a thread working on building the checkerboard for the result
+         * ImageView
+         */
+        @Nullable
+        private ResultCheckerboardWorker mResultCheckerboardWorker = null;
+        /**
+         * When non-null there's a thread working on building the gradient Bitmap
+         */
+        @Nullable
+        private GradientBitmapBackgroundWorker mGradientBitmapBackgroundWorker = null;
+        /**
+         * When non-null there's a thread working on displaying the gradient ImageView
+         */
+        @Nullable
+        private GradientImageViewBackgroundWorker mGradientImageViewBackgroundWorker = null;
+        /**
+         * The image the eyedropper picks colors from
+         */
+        @Nullable
+        private Bitmap mSourceBitmap = null;
+        /**
+         * The summed-area table of the source Bitmap, once it's been built
+         */
+        @Nullable
+        private SummedAreaTable mSummedAreaTable = null;
+        /**
+         * When non-null there's a thread working on building the summed-area table
+         */
+        @Nullable
+        private SummedAreaTableWorker mSummedAreaTableWorker = null;
+        /**
+         * The colors suggested by the source Bitmap, once there are any
+         */
+        @Nullable
+        private int[] mSuggestedColors = null;
+        /**
+         * When non-null there's a thread working on the palette of the source Bitmap
+         */
+        @Nullable
+        private PaletteWorker mPaletteWorker = null;
 
         /**
-         * Create a worker to build the hue SeekBar background on the given drawable.
-         * @param seekBar The hue SeekBar
+         * Creates a new RenderStateFragment.  This is only used by ColorChooserFragment and the
+         * FragmentManager.
          */
-        public HueSeekBarBackgroundWorker(@NonNull SeekBar seekBar) {
-            mSeekBarReference = new WeakReference<>(seekBar);
-            mWidth = seekBar.getWidth();
-            mHeight = seekBar.getHeight();
-            mThumbOffset = seekBar.getThumbOffset();
-            mIsVertical = seekBar instanceof VerticalSeekBar;
+        public RenderStateFragment() {
+            setRetainInstance(true);
         }
 
         @Override
-        @Nullable
-        protected Bitmap doInBackground(Void... params) {
-            Bitmap bitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
-            Canvas canvas = new Canvas(bitmap);
-            Paint paint = new Paint();
-            paint.setStrokeWidth(0);    // use hairline
-            float[] hsv = new float[] {0, 1, 1};
+        public void onDestroy() {
+            super.onDestroy();
+            cancelWorkers();
+        }
 
-            if (mIsVertical) {
-                float hueIncrement = (float) (360.0 / (double) (mHeight - (2 * mThumbOffset)));
+        /**
+         * Cancels any background workers that are still running
+         */
+        private void cancelWorkers() {
+            ColorChooserRenderEngine.cancel(mHueSeekBarBackgroundWorker, mHandler);
+            mHueSeekBarBackgroundWorker = null;
 
-                for (float y = mHeight - mThumbOffset; y > mThumbOffset; y -= 1, hsv[0] += hueIncrement) {
-                    paint.setColor(Color.HSVToColor(hsv));
-                    canvas.drawLine(0, y, mWidth, y, paint);
-                }
-            } else {
-                float hueIncrement = (float) (360.0 / (double) (mWidth - (2 * mThumbOffset)));
+            ColorChooserRenderEngine.cancel(mOpacitySeekBarBackgroundWorker, mHandler);
+            mOpacitySeekBarBackgroundWorker = null;
 
-                for (float x = mThumbOffset; x < mWidth - mThumbOffset; x += 1, hsv[0] += hueIncrement) {
-                    paint.setColor(Color.HSVToColor(hsv));
-                    canvas.drawLine(x, 0, x, mHeight, paint);
-                }
-            }
+            ColorChooserRenderEngine.cancel(mResultCheckerboardWorker, mHandler);
+            mResultCheckerboardWorker = null;
 
-            return bitmap;
-        }
+            ColorChooserRenderEngine.cancel(mGradientBitmapBackgroundWorker, mHandler);
+            mGradientBitmapBackgroundWorker = null;
 
-        @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            if (bitmap != null) {
-                SeekBar seekBar = mSeekBarReference.get();
+            ColorChooserRenderEngine.cancel(mGradientImageViewBackgroundWorker, mHandler);
+            mGradientImageViewBackgroundWorker = null;
 
-                if (seekBar != null) {
-                    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                        seekBar.setBackground(new BitmapDrawable(seekBar.getResources(), bitmap));
-                    } else {
-                        //noinspection deprecation
-                        seekBar.setBackgroundDrawable(new BitmapDrawable(seekBar.getResources(),
-                                bitmap));
-                    }
-                }
-            }
+            ColorChooserRenderEngine.cancel(mSummedAreaTableWorker, mHandler);
+            mSummedAreaTableWorker = null;
+
+            ColorChooserRenderEngine.cancel(mPaletteWorker, mHandler);
+            mPaletteWorker = null;
         }
     }
 
     /**
-     * Builds the background for the opacity SeekBar in a background thread.  The execute() method
-     * takes one parameter--the color to draw.  The worker will send a {@link android.os.Message
-     * Message} back through an {@link android.os.Handler Handler} with a reference to the
-     * checkerboard background bitmap to worker creates.
+     * Draws the opacity SeekBar checkerboard for a given SeekBar size and puts it in the
+     * {@link ColorChooserAssetCache}, unless it's already there.  Used by
+     * {@link #prewarm(android.content.Context, int, int)}.
      */
-    private static class OpacitySeekBarBackgroundWorker extends AsyncTask<Integer, Void, Bitmap> {
-        @NonNull
-        private final WeakReference<SeekBar> mSeekBarReference;
-        @NonNull
-        private final WeakReference<Rect> mDrawingRectReference;
-        @NonNull
-        private final WeakReference<Bitmap> mBackgroundBitmapReference;
-        private final int mBackgroundColor;
-        @Nullable
-        private Bitmap mBackgroundBitmap;
-        @NonNull
-        private final WeakReference<WorkerMessageHandler> mHandlerReference;
+    private static class PrewarmOpacityCheckerboardWorker extends ColorChooserRenderEngine.Job {
         private final int mWidth;
         private final int mHeight;
         private final int mThumbOffset;
         private final boolean mIsVertical;
+        private final int mBackgroundColor;
 
         /**
-         * Create a worker to build the opacity SeekBar background on the given drawable.
-         * @param seekBar The opacity SeekBar
-         * @param drawingRect The area in the SeekBar background in which to draw the different
-         *                    opacity settings corresponding to the current color
-         * @param backgroundColor The color to use as the background for the opacity SeekBar.  This
-         *                        value is ignored if backgroundBitmap is specified
-         * @param backgroundBitmap A reference to the bitmap with the checkerboard background.  If
-         *                         <code>null</code> the worker will create a checkerboard Bitmap
-         * @param handler The {@link android.os.Handler Handler} to which send a
-         * {@link android.os.Message Message} indicating completion.
+         * Creates a worker to draw the checkerboard for a SeekBar the size of the given (laid out)
+         * SeekBar.
+         * @param opacitySeekBar The opacity SeekBar
+         * @param backgroundColor The background color for the checkerboard
          */
-        public OpacitySeekBarBackgroundWorker(
-                @NonNull SeekBar seekBar,
-                @NonNull Rect drawingRect,
-                int backgroundColor,
-                @Nullable Bitmap backgroundBitmap,
-                @NonNull WorkerMessageHandler handler) {
-            mSeekBarReference = new WeakReference<>(seekBar);
-            mDrawingRectReference = new WeakReference<>(drawingRect);
-            mBackgroundBitmapReference = new WeakReference<>(backgroundBitmap);
+        PrewarmOpacityCheckerboardWorker(@NonNull SeekBar opacitySeekBar, int backgroundColor) {
+            super(null);
+            mWidth = opacitySeekBar.getWidth();
+            mHeight = opacitySeekBar.getHeight();
+            mThumbOffset = opacitySeekBar.getThumbOffset();
+            mIsVertical = opacitySeekBar instanceof VerticalSeekBar;
             mBackgroundColor = backgroundColor;
-            mHandlerReference = new WeakReference<>(handler);
-            mWidth = seekBar.getWidth();
-            mHeight = seekBar.getHeight();
-            mThumbOffset = seekBar.getThumbOffset();
-            mIsVertical = seekBar instanceof VerticalSeekBar;
         }
 
         @Override
-        @Nullable
-        protected Bitmap doInBackground(Integer... params) {
-            mBackgroundBitmap = mBackgroundBitmapReference.get();
-
-            if (mBackgroundBitmap == null) {
-                mBackgroundBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
-                Canvas canvas = new Canvas(mBackgroundBitmap);
-                Paint paint = new Paint();
-                paint.setColor(ColorUtils.isDark(mBackgroundColor) ? Color.WHITE : Color.BLACK);
-                paint.setStyle(Paint.Style.FILL);
-
-                if (mIsVertical) {
-                    for (float y = mThumbOffset; y < mHeight - mThumbOffset; y += CHECKERBOARD_GRID_SIZE) {
-                        if (isCancelled() || (mSeekBarReference.get() == null)) {
-                            return null;
-                        }
-
-                        for (float x = 0; x < mWidth; x += CHECKERBOARD_GRID_SIZE) {
-                            canvas.drawRect(x, y,
-                                    x + CHECKERBOARD_GRID_SIZE / 2, y + CHECKERBOARD_GRID_SIZE / 2,
-                                    paint);
-                        }
-                    }
-                } else {
-                    for (float x = mThumbOffset; x < mWidth - mThumbOffset; x += CHECKERBOARD_GRID_SIZE) {
-                        if (isCancelled() || (mSeekBarReference.get() == null)) {
-                            return null;
-                        }
-
-                        for (float y = 0; y < mHeight; y += CHECKERBOARD_GRID_SIZE) {
-                            canvas.drawRect(x, y,
-                                    x + CHECKERBOARD_GRID_SIZE / 2, y + CHECKERBOARD_GRID_SIZE / 2,
-                                    paint);
-                        }
-                    }
-                }
+        protected void render() {
+            if ((mWidth <= 0) || (mHeight <= 0)) {
+                return;
             }
 
-            // Add the opacity settings for the color to the checkerboard background
-            assert mBackgroundBitmap != null;
-            // TODO: handle Bitmap.copy failure
-            Bitmap bitmap = mBackgroundBitmap.copy(Bitmap.Config.ARGB_8888, true);
-            Canvas canvas = new Canvas(bitmap);
-            Paint paint = new Paint();
-            paint.setColor(params[0]);
-            paint.setStrokeWidth(0);
-            Rect drawingRect = mDrawingRectReference.get();
+            String key = ColorChooserAssetCache.opacityCheckerboardKey(mWidth, mHeight,
+                    mThumbOffset, mIsVertical, mBackgroundColor);
 
-            if (drawingRect == null) {
-                // the fragment was destroyed
-                return null;
+            if (ColorChooserAssetCache.load(key) == null) {
+                Bitmap bitmap = ColorChooserBitmaps.drawOpacityCheckerboardBitmap(mWidth, mHeight,
+                        mThumbOffset, mIsVertical, mBackgroundColor, null);
+                assert bitmap != null;
+                ColorChooserAssetCache.save(key, bitmap);
             }
+        }
+    }
 
-            float alpha = 0;
-
-            if (mIsVertical) {
-                float alphaIncrement = (float) (255.0 / (double) drawingRect.height());
-
-                for (float y = drawingRect.bottom; y > drawingRect.top; y -= 1, alpha += alphaIncrement) {
-                    if (isCancelled() || (mSeekBarReference.get() == null)) {
-                        return null;
-                    }
-
-                    paint.setAlpha((int) alpha);
-                    canvas.drawLine(drawingRect.left, y, drawingRect.right, y, paint);
-                }
-            } else {
-                float alphaIncrement = (float) (255.0 / (double) drawingRect.width());
-
-                for (float x = drawingRect.left; x < drawingRect.right; x += 1, alpha += alphaIncrement) {
-                    if (isCancelled() || (mSeekBarReference.get() == null)) {
-                        return null;
-                    }
-
-                    paint.setAlpha((int) alpha);
-                    canvas.drawLine(x, drawingRect.top, x, drawingRect.bottom, paint);
-                }
-            }
+    /**
+     * Builds the background for the hue SeekBar in a worker thread.  Since the background for the
+     * hue SeekBar doesn't change, this worker is run just once per SeekBar size, and pickers of the
+     * same size share it (see
+     * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.OpacitySeekBarBackgroundWorker
+     * OpacityBackgroundWorker} for the approach we use for a changing background).  The worker
+     * will send a {@link android.os.Message Message} back to its clients with a reference to
+     * itself, from which they can get the background Bitmap.
+     */
+    private static class HueSeekBarBackgroundWorker extends ColorChooserRenderEngine.Job {
+        @Nullable
+        private Bitmap mBitmap;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mThumbOffset;
+        private final boolean mIsVertical;
 
-            return bitmap;
+        /**
+         * Create a worker to build the hue SeekBar background on the given drawable.
+         * @param seekBar The hue SeekBar
+         */
+        public HueSeekBarBackgroundWorker(@NonNull SeekBar seekBar) {
+            super(ColorChooserAssetCache.hueSeekBarKey(seekBar.getWidth(), seekBar.getHeight(),
+                    seekBar.getThumbOffset(), seekBar instanceof VerticalSeekBar),
+                    HUE_SEEK_BAR_BACKGROUND_WORKER_DONE);
+            mWidth = seekBar.getWidth();
+            mHeight = seekBar.getHeight();
+            mThumbOffset = seekBar.getThumbOffset();
+            mIsVertical = seekBar instanceof VerticalSeekBar;
         }
 
         @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            if (bitmap == null) {
-                return;
-            }
+        protected void render() {
+            String key = ColorChooserAssetCache.hueSeekBarKey(mWidth, mHeight, mThumbOffset,
+                    mIsVertical);
+            Bitmap bitmap = ColorChooserAssetCache.load(key);
 
-            SeekBar seekBar = mSeekBarReference.get();
-
-            if (seekBar != null) {
-                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
-                    seekBar.setBackground(new BitmapDrawable(seekBar.getResources(), bitmap));
-                } else {
-                    //noinspection deprecation
-                    seekBar.setBackgroundDrawable(new BitmapDrawable(seekBar.getResources(),
-                            bitmap));
-                }
+            if (bitmap == null) {
+                bitmap = ColorChooserBitmaps.drawHueSeekBarBitmap(mWidth, mHeight, mThumbOffset,
+                        mIsVertical);
+                ColorChooserAssetCache.save(key, bitmap);
             }
 
-            WorkerMessageHandler handler = mHandlerReference.get();
-
-            if (handler != null) {
-                assert mBackgroundBitmap != null;
-                handler.sendMessage(handler.obtainMessage(OPACITY_SEEK_BAR_BACKGROUND_WORKER_DONE,
-                        mBackgroundBitmap));
-            }
+            mBitmap = bitmap;
+            finish(HUE_SEEK_BAR_BACKGROUND_WORKER_DONE, this);
         }
     }
 
     /**
-     * Builds the result ImageView in a background thread.  The execute() method takes one
-     * parameter--the color to draw.  The worker will send a {@link android.os.Message Message} back
-     * through a {@link android.os.Handler Handler} with a reference to the checkerboard background
-     * bitmap to worker creates.
+     * Builds the background for the opacity SeekBar in a background thread.  The worker will send a
+     * {@link android.os.Message Message} back to its client with a reference to itself, from which
+     * the client can get the finished Bitmap and the checkerboard background bitmap the worker
+     * creates.
      */
-    private static class ResultImageViewBackgroundWorker extends AsyncTask<Integer, Void, Bitmap> {
-        @NonNull
-        private final WeakReference<ImageView> mImageViewReference;
+    private static class OpacitySeekBarBackgroundWorker extends ColorChooserRenderEngine.Job {
         @NonNull
         private final WeakReference<Rect> mDrawingRectReference;
         @NonNull
         private final WeakReference<Bitmap> mBackgroundBitmapReference;
         private final int mBackgroundColor;
+        private final int mColor;
         @Nullable
         private Bitmap mBackgroundBitmap;
-        @NonNull
-        private final WeakReference<WorkerMessageHandler> mHandlerReference;
+        @Nullable
+        private Bitmap mBitmap;
         private final int mWidth;
         private final int mHeight;
+        private final int mThumbOffset;
+        private final boolean mIsVertical;
 
         /**
-         * Create a worker to build the result ImageView.
-         * @param imageView The ImageView that holds the result color
-         * @param drawingRect The area in the ImageView in which to draw the result color
-         * @param backgroundColor The color to use as the background for the result ImageView
+         * Create a worker to build the opacity SeekBar background on the given drawable.
+         * @param seekBar The opacity SeekBar
+         * @param drawingRect The area in the SeekBar background in which to draw the different
+         *                    opacity settings corresponding to the current color
+         * @param backgroundColor The color to use as the background for the opacity SeekBar.  This
+         *                        value is ignored if backgroundBitmap is specified
          * @param backgroundBitmap A reference to the bitmap with the checkerboard background.  If
          *                         <code>null</code> the worker will create a checkerboard Bitmap
-         *                         and store it {@link #mResultImageViewBackgroundBitmap}.
-         * @param handler The {@link android.os.Handler Handler} to which to send a
-         *                {@link android.os.Message Message} indicating completion.
+         * @param color The color to draw
          */
-        public ResultImageViewBackgroundWorker(
-                @NonNull ImageView imageView,
+        public OpacitySeekBarBackgroundWorker(
+                @NonNull SeekBar seekBar,
                 @NonNull Rect drawingRect,
                 int backgroundColor,
                 @Nullable Bitmap backgroundBitmap,
-                @NonNull WorkerMessageHandler handler) {
-            mImageViewReference = new WeakReference<>(imageView);
+                int color) {
+            super(null, OPACITY_SEEK_BAR_BACKGROUND_WORKER_DONE);
             mDrawingRectReference = new WeakReference<>(drawingRect);
             mBackgroundBitmapReference = new WeakReference<>(backgroundBitmap);
             mBackgroundColor = backgroundColor;
-            mHandlerReference = new WeakReference<>(handler);
-            mWidth = imageView.getWidth();
-            mHeight = imageView.getHeight();
+            mColor = color;
+            mWidth = seekBar.getWidth();
+            mHeight = seekBar.getHeight();
+            mThumbOffset = seekBar.getThumbOffset();
+            mIsVertical = seekBar instanceof VerticalSeekBar;
         }
 
         @Override
-        @Nullable
-        protected Bitmap doInBackground(Integer... params) {
+        protected void render() {
+            boolean drewBackgroundBitmap = false;
             mBackgroundBitmap = mBackgroundBitmapReference.get();
 
             if (mBackgroundBitmap == null) {
-                mBackgroundBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
-                Canvas canvas = new Canvas(mBackgroundBitmap);
-                Paint paint = new Paint();
-                paint.setColor(mBackgroundColor);
-                canvas.drawPaint(paint);
-                paint.setColor(ColorUtils.isDark(mBackgroundColor) ? Color.WHITE : Color.BLACK);
-                paint.setStyle(Paint.Style.FILL);
-
-                for (float x = 0; x < mWidth; x += CHECKERBOARD_GRID_SIZE) {
-                    if (isCancelled() || (mImageViewReference.get() == null)) {
-                        return null;
-                    }
+                mBackgroundBitmap = ColorChooserAssetCache.load(
+                        ColorChooserAssetCache.opacityCheckerboardKey(mWidth, mHeight,
+                                mThumbOffset, mIsVertical, mBackgroundColor));
+            }
 
-                    for (float y = 0; y < mHeight; y += CHECKERBOARD_GRID_SIZE) {
-                        canvas.drawRect(x, y,
-                                x + CHECKERBOARD_GRID_SIZE / 2, y + CHECKERBOARD_GRID_SIZE / 2,
-                                paint);
-                    }
+            if (mBackgroundBitmap == null) {
+                mBackgroundBitmap = ColorChooserBitmaps.drawOpacityCheckerboardBitmap(mWidth,
+                        mHeight, mThumbOffset, mIsVertical, mBackgroundColor, this);
+
+                if (mBackgroundBitmap == null) {
+                    // cancelled
+                    return;
                 }
+
+                drewBackgroundBitmap = true;
             }
 
+            // Add the opacity settings for the color to the checkerboard background
             assert mBackgroundBitmap != null;
-            // TODO: handle Bitmap.copy failure
-            Bitmap bitmap = mBackgroundBitmap.copy(Bitmap.Config.ARGB_8888, true);
-            Canvas canvas = new Canvas(bitmap);
-            Paint paint = new Paint();
-            paint.setColor(params[0]);
             Rect drawingRect = mDrawingRectReference.get();
 
             if (drawingRect == null) {
                 // the fragment was destroyed
-                return null;
+                return;
             }
 
-            canvas.drawRect(drawingRect, paint);
-            return bitmap;
-        }
+            Bitmap bitmap = ColorChooserBitmaps.drawOpacityBitmap(mBackgroundBitmap, drawingRect,
+                    mColor, mIsVertical, this);
 
-        @Override
-        protected void onPostExecute(Bitmap bitmap) {
             if (bitmap == null) {
+                // cancelled
                 return;
             }
 
-            ImageView imageView = mImageViewReference.get();
-
-            if (imageView != null) {
-                imageView.setImageBitmap(bitmap);
+            if (drewBackgroundBitmap) {
+                ColorChooserAssetCache.save(ColorChooserAssetCache.opacityCheckerboardKey(mWidth,
+                        mHeight, mThumbOffset, mIsVertical, mBackgroundColor), mBackgroundBitmap);
             }
 
-            WorkerMessageHandler handler = mHandlerReference.get();
+            mBitmap = bitmap;
+            finish(OPACITY_SEEK_BAR_BACKGROUND_WORKER_DONE, this);
+        }
+    }
+
+    /**
+     * Builds the checkerboard background for the result ImageView in a background thread.  The
+     * checkerboard doesn't depend on the selected color, so this worker is run just once per
+     * ImageView size and pickers of the same size share it.  The worker will send a
+     * {@link android.os.Message Message} back to its clients with a reference to itself, from
+     * which they can get the checkerboard Bitmap.
+     */
+    private static class ResultCheckerboardWorker extends ColorChooserRenderEngine.Job {
+        @Nullable
+        private Bitmap mBitmap;
+        private final int mWidth;
+        private final int mHeight;
+        private final int mBackgroundColor;
+
+        /**
+         * Create a worker to build the checkerboard for the result ImageView.
+         * @param width The width of the ImageView
+         * @param height The height of the ImageView
+         * @param backgroundColor The color to use as the background for the result ImageView
+         */
+        public ResultCheckerboardWorker(int width, int height, int backgroundColor) {
+            super(ColorChooserAssetCache.resultCheckerboardKey(width, height, backgroundColor),
+                    RESULT_CHECKERBOARD_WORKER_DONE);
+            mWidth = width;
+            mHeight = height;
+            mBackgroundColor = backgroundColor;
+        }
+
+        @Override
+        protected void render() {
+            String key = ColorChooserAssetCache.resultCheckerboardKey(mWidth, mHeight,
+                    mBackgroundColor);
+            Bitmap bitmap = ColorChooserAssetCache.load(key);
+
+            if (bitmap == null) {
+                bitmap = ColorChooserBitmaps.drawResultCheckerboardBitmap(mWidth, mHeight,
+                        mBackgroundColor, this);
+
+                if (bitmap == null) {
+                    // cancelled
+                    return;
+                }
 
-            if (handler != null) {
-                assert mBackgroundBitmap != null;
-                handler.sendMessage(handler.obtainMessage(RESULT_IMAGE_VIEW_BACKGROUND_WORKER_DONE,
-                        mBackgroundBitmap));
+                ColorChooserAssetCache.save(key, bitmap);
             }
+
+            mBitmap = bitmap;
+            finish(RESULT_CHECKERBOARD_WORKER_DONE, this);
         }
     }
 
     /**
-     * Builds the Bitmap for the gradient ImageView in a background thread.  The execute() method
-     * takes one parameter--the hue to draw.  The worker will send a
-     * {@link android.os.Message Message} back through a {@link android.os.Handler Handler} with a
-     * reference to the gradient Bitmap the worker creates.  Note that this worker does not put the
-     * circle on the ImageView indicating the saturation and value of the given hue...that's done in
+     * Builds the Bitmap for the gradient ImageView in a background thread: the saturation/value
+     * gradient of a hue, or in wheel mode the hue/saturation wheel of a value.  The worker will send
+     * a {@link android.os.Message Message} back to its clients with a reference to itself, from
+     * which they can get the gradient Bitmap the worker creates.  Pickers of the same size showing
+     * the same hue (or value) share one worker.  Note that this worker does not put the circle on
+     * the ImageView indicating the selected color...that's done in
      * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.GradientImageViewBackgroundWorker
      * GradientImageViewBackgroundWorker}.
      */
-    private static class GradientBitmapBackgroundWorker extends AsyncTask<Float, Bitmap, Bitmap> {
-        @NonNull
-        private final WeakReference<WorkerMessageHandler> mHandlerReference;
+    private static class GradientBitmapBackgroundWorker extends ColorChooserRenderEngine.Job {
+        @Nullable
+        private Bitmap mBitmap;
+        /**
+         * The latest low-resolution version of the gradient, while the full-resolution version is
+         * drawn
+         */
+        @Nullable
+        private volatile Bitmap mInterimBitmap;
         private final int mWidth;
         private final int mHeight;
+        private final boolean mIsWheel;
+        /**
+         * The hue of the gradient, or the value of the wheel
+         */
+        private final float mLevel;
+        /**
+         * If <code>true</code>, low-resolution versions of the gradient are sent to the clients
+         * while the full-resolution version is drawn
+         */
+        private final boolean mIsProgressive;
 
         /**
          * Creates a new worker to build a Bitmap of the given size.
          * @param width Width of the gradient Bitmap
          * @param height Height of the gradient Bitmap
-         * @param handler If not null, Handler to which to send a message when complete
+         * @param isWheel If <code>true</code>, draw the hue/saturation wheel
+         * @param level The hue of the gradient, or the value of the wheel
+         * @param isProgressive If <code>true</code>, send low-resolution versions of the gradient
+         *                      while the full-resolution version is drawn.  The wheel is drawn in
+         *                      one pass, so this is ignored for it.
          */
-        public GradientBitmapBackgroundWorker(int width, int height,
-                                              @NonNull WorkerMessageHandler handler) {
-            mHandlerReference = new WeakReference<>(handler);
+        public GradientBitmapBackgroundWorker(int width, int height, boolean isWheel, float level,
+                                              boolean isProgressive) {
+            super(isWheel ? ColorChooserAssetCache.wheelKey(width, height, level) :
+                    ColorChooserAssetCache.gradientKey(width, height, level),
+                    GRADIENT_BITMAP_BACKGROUND_WORKER_DONE);
             mWidth = width;
             mHeight = height;
+            mIsWheel = isWheel;
+            mLevel = level;
+            mIsProgressive = isProgressive && !isWheel;
         }
 
         @Override
-        @Nullable
-        protected Bitmap doInBackground(Float... params) {
-            // start off with low-resolution versions to speed up progress
-            Paint paint = new Paint();
-            paint.setStyle(Paint.Style.FILL);
-
-            for (int res = GRADIENT_BITMAP_STARTING_RESOLUTION; res > 1; res /= 2) {
-                float[] hsv = new float[] {params[0], 0, 0};
-                Bitmap gradientBitmap = Bitmap.createBitmap(mWidth, mHeight,
-                        Bitmap.Config.ARGB_8888);
-                Canvas canvas = new Canvas(gradientBitmap);
-                float saturationIncrement = (float) ((double) res / (double) mWidth);
-                float valueIncrement = (float) ((double) res / (double) mWidth);
-
-                for (int x = 0; x < mWidth; x+= res, hsv[1] += saturationIncrement) {
-                    if (isCancelled()) {
-                        return null;
-                    }
-
-                    hsv[2] = 0;
+        protected void render() {
+            String key = mIsWheel ? ColorChooserAssetCache.wheelKey(mWidth, mHeight, mLevel) :
+                    ColorChooserAssetCache.gradientKey(mWidth, mHeight, mLevel);
+            Bitmap cachedBitmap = ColorChooserAssetCache.load(key);
+
+            if (cachedBitmap != null) {
+                // drawn before, perhaps by an earlier run of the app
+                mBitmap = cachedBitmap;
+                finish(GRADIENT_BITMAP_BACKGROUND_WORKER_DONE, this);
+                return;
+            }
 
-                    for (int y = 0; y < mHeight; y += res, hsv[2] += valueIncrement) {
-                        paint.setColor(Color.HSVToColor(0xff, hsv));
-                        canvas.drawRect(x, y, x + res, y + res, paint);
-                    }
+            // start off with low-resolution versions to speed up progress
+            for (int res = GRADIENT_BITMAP_STARTING_RESOLUTION; mIsProgressive && (res > 1);
+                 res /= 2) {
+                Bitmap gradientBitmap = ColorChooserBitmaps.drawGradientBitmap(mWidth, mHeight,
+                        mLevel, res, this);
+
+                if (gradientBitmap == null) {
+                    // cancelled
+                    return;
                 }
 
-                publishProgress(gradientBitmap);
+                mInterimBitmap = gradientBitmap;
+                sendToClients(GRADIENT_BITMAP_BACKGROUND_WORKER_UPDATE, this);
             }
 
             // now do the full resolution version
-            float[] hsv = new float[] {params[0], 0, 0};
-            Bitmap gradientBitmap = Bitmap.createBitmap(mWidth, mHeight, Bitmap.Config.ARGB_8888);
-            float saturationIncrement = (float) (1.0 / (double) mWidth);
-            float valueIncrement = (float) (1.0 / (double) mHeight);
-
-            for (int x = 0; x < mWidth; x++, hsv[1] += saturationIncrement) {
-                if (isCancelled()) {
-                    return null;
-                }
+            Bitmap bitmap = mIsWheel ?
+                    ColorChooserBitmaps.drawWheelBitmap(mWidth, mHeight, mLevel, this) :
+                    ColorChooserBitmaps.drawGradientBitmap(mWidth, mHeight, mLevel, 1, this);
 
-                hsv[2] = 0;
-
-                for (int y = 0; y < mHeight; y++, hsv[2] += valueIncrement) {
-                    gradientBitmap.setPixel(x, y, Color.HSVToColor(hsv));
-                }
+            if (bitmap == null) {
+                return;
             }
 
-            return gradientBitmap;
-        }
-
-        @Override
-        protected void onProgressUpdate(Bitmap... values) {
-            WorkerMessageHandler handler = mHandlerReference.get();
-
-            if (handler != null) {
-                handler.sendMessage(handler.obtainMessage(GRADIENT_BITMAP_BACKGROUND_WORKER_UPDATE,
-                        values[0]));
+            // only the levels the SeekBars stop at come up again, so only they are worth a file
+            if (mLevel == quantizeLevel(mLevel, mIsWheel)) {
+                ColorChooserAssetCache.save(key, bitmap);
+            } else {
+                ColorChooserAssetCache.put(key, bitmap);
             }
-        }
 
-        @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            WorkerMessageHandler handler = mHandlerReference.get();
-
-            if ((bitmap != null) && (handler != null)) {
-                handler.sendMessage(handler.obtainMessage(GRADIENT_BITMAP_BACKGROUND_WORKER_DONE,
-                        bitmap));
-            }
+            mBitmap = bitmap;
+            finish(GRADIENT_BITMAP_BACKGROUND_WORKER_DONE, this);
         }
     }
 
     /**
      * Puts the current saturation and value on a gradient Bitmap created by
      * {@link com.sailbravado.androiduilibrary.ColorChooserFragment.GradientBitmapBackgroundWorker
-     * GradientBitmapBackgrundWorker} and posts the resulting Bitmap on the gradient ImageView.  The
-     * execute() method takes three parameters--the hue, saturation and value to draw.  The worker
-     * will send a {@link android.os.Message Message} back through a
-     * {@link android.os.Handler Handler} when finished.
+     * GradientBitmapBackgrundWorker}.  The worker will send a {@link android.os.Message Message}
+     * back to its client with the finished Bitmap.
      */
-    private static class GradientImageViewBackgroundWorker extends AsyncTask<Float, Void, Bitmap> {
-        @NonNull
-        private final WeakReference<ImageView> mImageViewReference;
+    private static class GradientImageViewBackgroundWorker extends ColorChooserRenderEngine.Job {
         @NonNull
         private final WeakReference<Bitmap> mGradientBitmapReference;
-        @NonNull
-        private final WeakReference<WorkerMessageHandler> mHandlerReference;
+        /**
+         * The gradient with the selected color circle on it, once it's drawn
+         */
+        @Nullable
+        private Bitmap mBitmap;
         private final int mWidth;
         private final int mHeight;
+        /**
+         * The hue, saturation and value to draw
+         */
+        @NonNull
+        private final float[] mHSV;
+        private final boolean mIsWheel;
 
         /**
-         * Create a new background worker to put the saturation and value indicator on the given
-         * gradient Bitmap and post it to the given ImageView
-         * @param imageView The ImageView that holds the result color
+         * Create a new background worker to put the selected color indicator on the given
+         * gradient Bitmap
+         * @param imageView The gradient ImageView
          * @param gradientBitmap The gradient Bitmap on which to draw the indicator.  If this is
          *                       null the worker does nothing
-         * @param handler The {@link android.os.Handler Handler} to which to send a
-         * {@link android.os.Message Message} indicating completion.
+         * @param hsv The hue, saturation and value to draw
+         * @param isWheel If <code>true</code> the gradient Bitmap is a hue/saturation wheel
          */
         public GradientImageViewBackgroundWorker(@NonNull ImageView imageView,
                                                  @Nullable Bitmap gradientBitmap,
-                                                 @NonNull WorkerMessageHandler handler) {
-            mImageViewReference = new WeakReference<>(imageView);
+                                                 @NonNull float[] hsv, boolean isWheel) {
+            super(null, GRADIENT_IMAGE_VIEW_BACKGROUND_WORKER_DONE);
             mWidth = imageView.getWidth();
             mHeight = imageView.getHeight();
             mGradientBitmapReference = new WeakReference<>(gradientBitmap);
-            mHandlerReference = new WeakReference<>(handler);
+            mHSV = hsv.clone();
+            mIsWheel = isWheel;
         }
 
         @Override
-        protected Bitmap doInBackground(Float... params) {
+        protected void render() {
             Bitmap gradientBitmap = mGradientBitmapReference.get();
 
             if (gradientBitmap == null) {
-                return null;
+                // a newer gradient replaced it...the handler will start another worker for that
+                finish(GRADIENT_IMAGE_VIEW_BACKGROUND_WORKER_DONE, this);
+                return;
             }
 
             Bitmap bitmap = gradientBitmap.copy(Bitmap.Config.ARGB_8888, true);
+
+            if (bitmap == null) {
+                // the copy fails under memory pressure...leave mBitmap null so the handler keeps
+                // showing what it already has
+                finish(GRADIENT_IMAGE_VIEW_BACKGROUND_WORKER_DONE, this);
+                return;
+            }
+
             Canvas canvas = new Canvas(bitmap);
             Paint paint = new Paint();
             paint.setStrokeWidth(SELECTED_COLOR_CIRCLE_STROKE_WIDTH);
             paint.setStyle(Paint.Style.STROKE);
-            float[] hsv = new float[] {params[0], params[1], params[2]};
-            paint.setColor(ColorUtils.isDark(Color.HSVToColor(hsv)) ? Color.WHITE : Color.BLACK);
-            canvas.drawCircle(params[1] * mWidth, params[2] * mHeight, SELECTED_COLOR_CIRCLE_RADIUS,
-                    paint);
-            return bitmap;
+            paint.setColor(ColorUtils.isDark(Color.HSVToColor(mHSV)) ? Color.WHITE : Color.BLACK);
+
+            if (mIsWheel) {
+                // hue is the angle (counterclockwise from the right) and saturation the distance
+                // from the center
+                double angle = Math.toRadians(mHSV[0]);
+                float distance = mHSV[1] * Math.min(mWidth, mHeight) / 2f;
+                canvas.drawCircle((mWidth / 2f) + (float) (distance * Math.cos(angle)),
+                        (mHeight / 2f) - (float) (distance * Math.sin(angle)),
+                        SELECTED_COLOR_CIRCLE_RADIUS, paint);
+            } else {
+                canvas.drawCircle(mHSV[1] * mWidth, mHSV[2] * mHeight, SELECTED_COLOR_CIRCLE_RADIUS,
+                        paint);
+            }
+
+            mBitmap = bitmap;
+            finish(GRADIENT_IMAGE_VIEW_BACKGROUND_WORKER_DONE, this);
+        }
+    }
+
+    /**
+     * Builds the summed-area table of the source Bitmap in a background thread, reading the Bitmap
+     * one row at a time.  The worker will send a {@link android.os.Message Message} back to its
+     * client with a reference to itself, from which the client can get the table.
+     */
+    private static class SummedAreaTableWorker extends ColorChooserRenderEngine.Job {
+        @NonNull
+        private final Bitmap mSourceBitmap;
+        @Nullable
+        private SummedAreaTable mTable;
+
+        /**
+         * Creates a worker to build the summed-area table of a Bitmap
+         * @param sourceBitmap The Bitmap
+         */
+        public SummedAreaTableWorker(@NonNull Bitmap sourceBitmap) {
+            super(null, SUMMED_AREA_TABLE_WORKER_DONE);
+            mSourceBitmap = sourceBitmap;
         }
 
         @Override
-        protected void onPostExecute(Bitmap bitmap) {
-            if (bitmap == null) {
+        protected void render() {
+            int width = mSourceBitmap.getWidth();
+            int height = mSourceBitmap.getHeight();
+            SummedAreaTable table = new SummedAreaTable(width, height);
+            int[] row = new int[width];
+
+            for (int y = 0; y < height; y++) {
+                if (isCancelled()) {
+                    return;
+                }
+
+                mSourceBitmap.getPixels(row, 0, width, 0, y, width, 1);
+                table.addSourceRow(row);
+            }
+
+            mTable = table;
+            finish(SUMMED_AREA_TABLE_WORKER_DONE, this);
+        }
+    }
+
+    /**
+     * Finds the colors to suggest from the source Bitmap in a background thread, by median cut of
+     * its color histogram.  The histogram is built in horizontal tiles that run side by side (see
+     * {@link ColorChooserRenderEngine#invokeTiles(java.util.Collection)}).  A palette from a sample
+     * of the pixels is sent first, then the palette of the whole Bitmap; each message carries a
+     * reference to the worker, from which the client can get the latest palette.
+     */
+    private static class PaletteWorker extends ColorChooserRenderEngine.Job {
+        @NonNull
+        private final Bitmap mSourceBitmap;
+        /**
+         * The latest palette, most common color first
+         */
+        @Nullable
+        private volatile int[] mPalette;
+
+        /**
+         * Creates a worker to find the palette of a Bitmap
+         * @param sourceBitmap The Bitmap
+         */
+        public PaletteWorker(@NonNull Bitmap sourceBitmap) {
+            super(null, PALETTE_WORKER_DONE);
+            mSourceBitmap = sourceBitmap;
+        }
+
+        @Override
+        protected void render() {
+            int[] palette = findPalette(PALETTE_SUBSAMPLE_STEP);
+
+            if (palette == null) {
+                // cancelled or failed
+                return;
+            }
+
+            mPalette = palette;
+            sendToClients(PALETTE_WORKER_UPDATE, this);
+            palette = findPalette(1);
+
+            if (palette == null) {
                 return;
             }
 
-            ImageView imageView = mImageViewReference.get();
+            mPalette = palette;
+            finish(PALETTE_WORKER_DONE, this);
+        }
+
+        /**
+         * Finds the palette of the source Bitmap from some or all of its pixels
+         * @param step 1 to use every pixel, or more to use every <code>step</code>th pixel of
+         *             every <code>step</code>th row
+         * @return The palette, or <code>null</code> if the worker was cancelled or the source
+         * Bitmap couldn't be read
+         */
+        @Nullable
+        private int[] findPalette(final int step) {
+            final int width = mSourceBitmap.getWidth();
+            int height = mSourceBitmap.getHeight();
+            int tileHeight = (height + ColorChooserRenderEngine.MAX_CONCURRENT_TILES - 1) /
+                    ColorChooserRenderEngine.MAX_CONCURRENT_TILES;
+            List<Callable<int[]>> tiles = new ArrayList<>();
+
+            for (int tileTop = 0; tileTop < height; tileTop += tileHeight) {
+                final int top = tileTop;
+                final int bottom = Math.min(height, tileTop + tileHeight);
+                tiles.add(new Callable<int[]>() {
+                    @Override
+                    public int[] call() {
+                        int[] histogram = new int[PaletteQuantizer.HISTOGRAM_SIZE];
+                        int[] row = new int[width];
+
+                        for (int y = top; y < bottom; y += step) {
+                            if (isCancelled()) {
+                                return null;
+                            }
+
+                            mSourceBitmap.getPixels(row, 0, width, 0, y, width, 1);
+                            PaletteQuantizer.addToHistogram(row, 0, width, step, histogram);
+                        }
 
-            if (imageView != null) {
-                imageView.setImageBitmap(bitmap);
+                        return histogram;
+                    }
+                });
             }
 
-            WorkerMessageHandler handler = mHandlerReference.get();
+            int[] histogram = new int[PaletteQuantizer.HISTOGRAM_SIZE];
+
+            try {
+                for (Future<int[]> tile : ColorChooserRenderEngine.invokeTiles(tiles)) {
+                    int[] tileHistogram = tile.get();
+
+                    if (tileHistogram == null) {
+                        return null;
+                    }
 
-            if (handler != null) {
-                handler.sendMessage(handler.obtainMessage(
-                        GRADIENT_IMAGE_VIEW_BACKGROUND_WORKER_DONE));
+                    PaletteQuantizer.mergeHistogram(tileHistogram, histogram);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            } catch (ExecutionException e) {
+                // a tile failed to read the source Bitmap.  the worker gives up, and the client
+                // keeps whatever palette it has already been sent
+                return null;
             }
+
+            return PaletteQuantizer.medianCut(histogram, SUGGESTED_COLOR_COUNT);
         }
     }
 
     /**
      * A Handler to receive and process completion messages from the various background workers.
+     * The results are stored in the {@link RenderStateFragment} and, if a ColorChooserFragment is
+     * currently showing that render state, put on its views.
      */
-    private static class WorkerMessageHandler extends Handler {
-        private final WeakReference<ColorChooserFragment> mFragmentReference;
+    private static class WorkerMessageHandler extends ColorChooserRenderEngine.Client {
+        private final WeakReference<RenderStateFragment> mRenderStateReference;
 
         /**
-         * Create the Handler and associate it with the given Fragment.
-         * @param fragment The Fragment
+         * Create the Handler and associate it with the given render state.
+         * @param renderState The render state
          */
-        WorkerMessageHandler(ColorChooserFragment fragment) {
+        WorkerMessageHandler(RenderStateFragment renderState) {
             super();
-            mFragmentReference = new WeakReference<>(fragment);
+            mRenderStateReference = new WeakReference<>(renderState);
+        }
+
+        @Override
+        boolean isVisibleToUser() {
+            RenderStateFragment state = mRenderStateReference.get();
+            ColorChooserFragment fragment = (state != null) ? state.mFragment : null;
+            return (fragment != null) && fragment.mIsInForeground && fragment.isVisible();
         }
 
         @Override
         public void handleMessage(Message msg) {
-            ColorChooserFragment fragment = mFragmentReference.get();
+            RenderStateFragment state = mRenderStateReference.get();
 
-            if (fragment == null) {
-                // the fragment has been destroyed
+            if (state == null) {
+                // the render state has been destroyed
                 return;
             }
 
+            ColorChooserFragment fragment = state.mFragment;
+
             switch (msg.what) {
+                case HUE_SEEK_BAR_BACKGROUND_WORKER_DONE:
+                    HueSeekBarBackgroundWorker hueWorker = (HueSeekBarBackgroundWorker) msg.obj;
+
+                    if (state.mHueSeekBarBackgroundWorker != hueWorker) {
+                        // this one was for a size we no longer have
+                        break;
+                    }
+
+                    state.mHueSeekBarBackgroundWorker = null;
+
+                    if (hueWorker.mBitmap == null) {
+                        // it failed...the SeekBar keeps the background it has
+                        break;
+                    }
+
+                    state.mHueSeekBarBitmap = hueWorker.mBitmap;
+
+                    if (fragment != null) {
+                        setSeekBarBackground(fragment.mHueSeekBar, state.mHueSeekBarBitmap);
+                    }
+
+                    break;
+
                 case OPACITY_SEEK_BAR_BACKGROUND_WORKER_DONE:
-                    fragment.mOpacitySeekBarBackgroundBitmap = (Bitmap) msg.obj;
-                    fragment.mOpacitySeekBarBackgroundWorker = null;
+                    OpacitySeekBarBackgroundWorker opacityWorker =
+                            (OpacitySeekBarBackgroundWorker) msg.obj;
+
+                    if (state.mOpacitySeekBarBackgroundWorker != opacityWorker) {
+                        // this one was for a size we no longer have
+                        break;
+                    }
+
+                    state.mOpacitySeekBarBackgroundWorker = null;
+
+                    if (opacityWorker.mBitmap == null) {
+                        // it failed...the SeekBar keeps the background it has
+                        break;
+                    }
+
+                    state.mOpacitySeekBarBackgroundBitmap = opacityWorker.mBackgroundBitmap;
+                    state.mOpacitySeekBarBitmap = opacityWorker.mBitmap;
+
+                    if (fragment != null) {
+                        setSeekBarBackground(fragment.mOpacitySeekBar, opacityWorker.mBitmap);
+
+                        if (state.mOpacitySeekBarBitmapIsStale) {
+                            // the color changed while this one was being drawn
+                            fragment.startOpacitySeekBarBackgroundWorker();
+                        }
+                    }
+
                     break;
 
-                case RESULT_IMAGE_VIEW_BACKGROUND_WORKER_DONE:
-                    fragment.mResultImageViewBackgroundBitmap = (Bitmap) msg.obj;
-                    fragment.mResultImageViewBackgroundWorker = null;
+                case RESULT_CHECKERBOARD_WORKER_DONE:
+                    ResultCheckerboardWorker resultWorker = (ResultCheckerboardWorker) msg.obj;
+
+                    if (state.mResultCheckerboardWorker != resultWorker) {
+                        // this one was for a size we no longer have
+                        break;
+                    }
+
+                    state.mResultCheckerboardWorker = null;
+
+                    if (resultWorker.mBitmap == null) {
+                        // it failed...the result ImageView keeps what it has
+                        break;
+                    }
+
+                    state.mResultImageViewBackgroundBitmap = resultWorker.mBitmap;
+
+                    if (fragment != null) {
+                        fragment.installResultImageViewLayers();
+                    }
+
                     break;
 
                 case GRADIENT_BITMAP_BACKGROUND_WORKER_UPDATE:
                 case GRADIENT_BITMAP_BACKGROUND_WORKER_DONE:
                     // the worker thread has a Bitmap for us to use.  if this is an _UPDATE message
                     // then the Bitmap is an interim and the worker thread will continue
-                    if (msg.what == GRADIENT_BITMAP_BACKGROUND_WORKER_DONE) {
-                        fragment.mGradientBitmapBackgroundWorker = null;
+                    GradientBitmapBackgroundWorker gradientWorker =
+                            (GradientBitmapBackgroundWorker) msg.obj;
+
+                    if (state.mGradientBitmapBackgroundWorker != gradientWorker) {
+                        // this one was for a hue or size we no longer have.  an update may have
+                        // been queued before the worker was cancelled
+                        break;
                     }
 
-                    fragment.mGradientImageViewBackgroundBitmap = (Bitmap) msg.obj;
+                    if (msg.what == GRADIENT_BITMAP_BACKGROUND_WORKER_DONE) {
+                        state.mGradientBitmapBackgroundWorker = null;
+
+                        if (gradientWorker.mBitmap == null) {
+                            // it failed...the ImageView keeps the gradient it has
+                            break;
+                        }
+
+                        state.mGradientImageViewBackgroundBitmap = gradientWorker.mBitmap;
+                    } else {
+                        state.mGradientImageViewBackgroundBitmap = gradientWorker.mInterimBitmap;
+                    }
 
-                    if (fragment.mGradientImageViewBackgroundWorker != null) {
-                        fragment.mGradientImageViewBackgroundWorker.cancel(true);
+                    if (fragment != null) {
+                        fragment.startGradientImageViewBackgroundWorker();
+                    } else {
+                        // the circle will go on when the next fragment is laid out
+                        state.mGradientImageViewBitmapIsStale = true;
                     }
 
-                    fragment.mGradientImageViewBackgroundWorker =
-                            new GradientImageViewBackgroundWorker(fragment.mGradientImageView,
-                                    fragment.mGradientImageViewBackgroundBitmap, this);
-                    fragment.mGradientImageViewBackgroundWorker.executeOnExecutor(
-                            AsyncTask.THREAD_POOL_EXECUTOR, fragment.mColorHSV[0],
-                            fragment.mColorHSV[1], fragment.mColorHSV[2]);
                     break;
 
                 case GRADIENT_IMAGE_VIEW_BACKGROUND_WORKER_DONE:
-                    fragment.mGradientImageViewBackgroundWorker = null;
+                    GradientImageViewBackgroundWorker imageViewWorker =
+                            (GradientImageViewBackgroundWorker) msg.obj;
+                    state.mGradientImageViewBackgroundWorker = null;
+
+                    if (imageViewWorker.mBitmap != null) {
+                        state.mGradientImageViewBitmap = imageViewWorker.mBitmap;
+
+                        if (fragment != null) {
+                            fragment.mGradientImageView.setImageBitmap(
+                                    state.mGradientImageViewBitmap);
+                        }
+                    }
+
+                    if ((fragment != null) && state.mGradientImageViewBitmapIsStale) {
+                        // the color or gradient changed while this one was being drawn
+                        fragment.startGradientImageViewBackgroundWorker();
+                    }
+
+                    break;
+
+                case SUMMED_AREA_TABLE_WORKER_DONE:
+                    SummedAreaTableWorker tableWorker = (SummedAreaTableWorker) msg.obj;
+
+                    if (state.mSummedAreaTableWorker != tableWorker) {
+                        // this one was for a source Bitmap we no longer have
+                        break;
+                    }
+
+                    state.mSummedAreaTable = tableWorker.mTable;
+                    state.mSummedAreaTableWorker = null;
+                    break;
+
+                case PALETTE_WORKER_UPDATE:
+                case PALETTE_WORKER_DONE:
+                    PaletteWorker paletteWorker = (PaletteWorker) msg.obj;
+
+                    if (state.mPaletteWorker != paletteWorker) {
+                        // this one was for a source Bitmap we no longer have
+                        break;
+                    }
+
+                    state.mSuggestedColors = paletteWorker.mPalette;
+
+                    if (msg.what == PALETTE_WORKER_DONE) {
+                        state.mPaletteWorker = null;
+                    }
+
+                    if (fragment != null) {
+                        fragment.installSuggestedColors();
+                    }
+
                     break;
             }
         }
@@ -0,0 +1,469 @@
+package com.sailbravado.androiduilibrary;
+
+import android.os.Handler;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.sailbravado.androiduilibrary.render.Cancellable;
+
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the rendering jobs for every
+ * {@link com.sailbravado.androiduilibrary.ColorChooserFragment ColorChooserFragment} in the process
+ * on one small pool of background threads, so several pickers on screen at once can't crowd out
+ * the app's own work.  Queued jobs run in priority order: jobs for the picker the user is working
+ * with go first, then jobs for other visible pickers, then jobs for pickers that are off screen,
+ * and finally jobs nobody is waiting for (such as those started by
+ * {@link ColorChooserFragment#prewarm(android.content.Context, int, int)}).
+ * <p><p>Jobs that have a key are shared: submitting a job while another job with the same key is
+ * still running just adds the client to the running job, so identical renders requested by
+ * different pickers are only done once.  Jobs report back by sending
+ * {@link android.os.Message Messages} to their clients, which are {@link android.os.Handler
+ * Handlers}.  Except where noted, the methods of this class must be called from the UI thread.
+ * <p><p>A job that can split its work into independent pieces (tiles) can run them side by side
+ * with {@link #invokeTiles(java.util.Collection)}.  Tiles get a pool of their own, so a job
+ * waiting for its tiles never holds up the threads those tiles need.
+ */
+final class ColorChooserRenderEngine {
+    /**
+     * Priority of jobs for the picker the user most recently interacted with
+     */
+    static final int PRIORITY_FOCUSED = 0;
+    /**
+     * Priority of jobs for other pickers that are visible
+     */
+    static final int PRIORITY_VISIBLE = 1;
+    /**
+     * Priority of jobs for pickers that aren't visible
+     */
+    static final int PRIORITY_BACKGROUND = 2;
+    /**
+     * Priority of jobs that have no clients waiting for them
+     */
+    static final int PRIORITY_PREWARM = 3;
+    /**
+     * The done message of a job that nobody waits for
+     */
+    private static final int NO_DONE_MESSAGE = -1;
+    /**
+     * Tag for log messages
+     */
+    private static final String TAG = "ColorChooserRenderEngine";
+    /**
+     * The maximum number of jobs that run at the same time, across all pickers
+     */
+    static final int MAX_CONCURRENT_JOBS =
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    /**
+     * The maximum number of tiles that run at the same time, across all jobs
+     */
+    static final int MAX_CONCURRENT_TILES =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+    /**
+     * How long an idle render thread waits for a new job before it goes away, in seconds
+     */
+    private static final int KEEP_ALIVE_SECONDS = 1;
+
+    /**
+     * The thread pool.  Its queue orders the jobs by priority.
+     */
+    @NonNull
+    private static final ThreadPoolExecutor sExecutor;
+    /**
+     * The thread pool for the tiles of jobs
+     */
+    @NonNull
+    private static final ThreadPoolExecutor sTileExecutor;
+    /**
+     * The running or queued jobs that have a key, by key
+     */
+    @NonNull
+    private static final ConcurrentHashMap<String, Job> sSharedJobs = new ConcurrentHashMap<>();
+    /**
+     * The client the user most recently interacted with
+     */
+    @NonNull
+    private static WeakReference<Client> sFocusedClient = new WeakReference<>(null);
+
+    static {
+        sExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_JOBS, MAX_CONCURRENT_JOBS,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(@NonNull Runnable runnable) {
+                        return new Thread(runnable,
+                                "ColorChooserRenderEngine #" + mCount.getAndIncrement());
+                    }
+                });
+        sExecutor.allowCoreThreadTimeOut(true);
+
+        sTileExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_TILES, MAX_CONCURRENT_TILES,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "ColorChooserRenderEngine tile #" + mCount.getAndIncrement());
+                    }
+                });
+        sTileExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Static class...don't instantiate
+     */
+    private ColorChooserRenderEngine() {
+    }
+
+    /**
+     * Submits a job.  If the job has a key and a job with the same key is still running, the
+     * client is added to that job instead and the given job is never run.
+     * @param job The job
+     * @param client The client to send the job's messages to, or <code>null</code> if nobody is
+     *               waiting for the job (it will then run at {@link #PRIORITY_PREWARM})
+     * @return The job that will send the client its messages: either the given job or the one
+     * already running with the same key.  Use this to cancel the job and to check which job a
+     * message came from.
+     */
+    @NonNull
+    static Job submit(@NonNull Job job, @Nullable Client client) {
+        if (job.mKey != null) {
+            Job sharedJob = sSharedJobs.get(job.mKey);
+
+            if ((sharedJob != null) && sharedJob.addClient(client)) {
+                // somebody is already rendering this...make sure it runs at least as soon as
+                // this client needs it to
+                if ((client != null) && (priorityOf(client) < sharedJob.mPriority)) {
+                    requeue(sharedJob);
+                }
+
+                return sharedJob;
+            }
+
+            sSharedJobs.put(job.mKey, job);
+        }
+
+        job.addClient(client);
+        job.mPriority = priorityOf(job);
+        sExecutor.execute(job);
+        return job;
+    }
+
+    /**
+     * Tells a job that a client is no longer interested in it.  Once a job has no clients left
+     * it's cancelled, unless it was also submitted without a client (a prewarm job), in which
+     * case it drops back to {@link #PRIORITY_PREWARM} and still runs.
+     * @param job The job (may be <code>null</code>, in which case nothing happens)
+     * @param client The client
+     */
+    static void cancel(@Nullable Job job, @NonNull Client client) {
+        if (job == null) {
+            return;
+        }
+
+        if (job.removeClient(client)) {
+            sExecutor.remove(job);
+
+            if (job.mKey != null) {
+                sSharedJobs.remove(job.mKey, job);
+            }
+        } else if (priorityOf(job) != job.mPriority) {
+            // the clients that are left may be less urgent
+            requeue(job);
+        }
+    }
+
+    /**
+     * Runs the tiles of a job side by side and waits for all of them to finish.  Called on a
+     * render thread, from {@link Job#render()}.  Tiles should check {@link Job#isCancelled()} as
+     * they go, like the job itself.
+     * @param tiles The tiles
+     * @return The results of the tiles, in the same order
+     * @throws InterruptedException If the render thread was interrupted while waiting
+     */
+    @NonNull
+    static <T> List<Future<T>> invokeTiles(@NonNull Collection<? extends Callable<T>> tiles)
+            throws InterruptedException {
+        return sTileExecutor.invokeAll(tiles);
+    }
+
+    /**
+     * Marks a client as the one the user is working with.  Its queued jobs move ahead of those of
+     * the other clients.
+     * @param client The client
+     */
+    static void setFocusedClient(@NonNull Client client) {
+        Client oldFocusedClient = sFocusedClient.get();
+
+        if (oldFocusedClient == client) {
+            return;
+        }
+
+        sFocusedClient = new WeakReference<>(client);
+        updatePriorities();
+    }
+
+    /**
+     * Re-sorts the queued jobs.  Call this when a client's visibility changes.
+     */
+    static void updatePriorities() {
+        for (Object queued : sExecutor.getQueue().toArray()) {
+            Job job = (Job) queued;
+
+            if (priorityOf(job) != job.mPriority) {
+                requeue(job);
+            }
+        }
+    }
+
+    /**
+     * Moves a queued job to the spot in the queue that matches its clients' current priority.  If
+     * the job is already running this does nothing.
+     * @param job The job
+     */
+    private static void requeue(@NonNull Job job) {
+        if (sExecutor.remove(job)) {
+            job.mPriority = priorityOf(job);
+            sExecutor.execute(job);
+        }
+    }
+
+    /**
+     * Finds the priority of a job, which is the most urgent priority of its clients.
+     * @param job The job
+     * @return The priority
+     */
+    private static int priorityOf(@NonNull Job job) {
+        int priority = PRIORITY_PREWARM;
+
+        for (Client client : job.mClients) {
+            priority = Math.min(priority, priorityOf(client));
+        }
+
+        return priority;
+    }
+
+    /**
+     * Finds the priority of a client's jobs.
+     * @param client The client
+     * @return The priority
+     */
+    private static int priorityOf(@NonNull Client client) {
+        if (!client.isVisibleToUser()) {
+            return PRIORITY_BACKGROUND;
+        }
+
+        return (client == sFocusedClient.get()) ? PRIORITY_FOCUSED : PRIORITY_VISIBLE;
+    }
+
+    /**
+     * A Handler that receives the messages from render jobs.
+     */
+    abstract static class Client extends Handler {
+        /**
+         * Reports whether the picker this client belongs to can be seen by the user.  Called on
+         * the UI thread.
+         * @return <code>true</code> if the picker is visible
+         */
+        abstract boolean isVisibleToUser();
+    }
+
+    /**
+     * A piece of rendering work.  Subclasses do the work in {@link #render()}, checking
+     * {@link #isCancelled()} as they go, report intermediate results with
+     * {@link #sendToClients(int, Object)} and the final result with {@link #finish(int, Object)}.
+     * If <code>render()</code> fails or gives up without finishing, the clients are still sent
+     * the job's done message, with the job itself as the object and whatever results it had got
+     * to, so they never wait for it forever.
+     */
+    abstract static class Job implements Runnable, Comparable<Job>, Cancellable {
+        /**
+         * Hands out the sequence numbers that keep jobs of the same priority in first-in,
+         * first-out order
+         */
+        @NonNull
+        private static final AtomicLong sNextSequence = new AtomicLong();
+
+        /**
+         * If not null, jobs with the same key produce the same result and are shared
+         */
+        @Nullable
+        final String mKey;
+        /**
+         * The message the job sends when it's done, or {@link #NO_DONE_MESSAGE}
+         */
+        private final int mDoneMessage;
+        private final long mSequence = sNextSequence.getAndIncrement();
+        /**
+         * One of the <code>PRIORITY_</code> constants.  Only changed while the job isn't queued.
+         */
+        private volatile int mPriority = PRIORITY_PREWARM;
+        @NonNull
+        private final CopyOnWriteArrayList<Client> mClients = new CopyOnWriteArrayList<>();
+        /**
+         * Set when the job was submitted without a client, so it should run even once all of
+         * its clients are gone; guarded by <code>this</code>
+         */
+        private boolean mIsPrewarm = false;
+        /**
+         * Set when the job has sent its last message; guarded by <code>this</code>
+         */
+        private boolean mIsFinished = false;
+        private volatile boolean mIsCancelled = false;
+
+        /**
+         * Creates a job that nobody waits for, so it has no done message.
+         * @param key If not null, a key that identifies the result of the job
+         */
+        Job(@Nullable String key) {
+            this(key, NO_DONE_MESSAGE);
+        }
+
+        /**
+         * Creates a job.
+         * @param key If not null, a key that identifies the result of the job
+         * @param doneMessage The message code the job finishes with, sent with the job itself as
+         *                    the object if it fails
+         */
+        Job(@Nullable String key, int doneMessage) {
+            mKey = key;
+            mDoneMessage = doneMessage;
+        }
+
+        /**
+         * Does the work.  Called on a render thread.
+         */
+        protected abstract void render();
+
+        /**
+         * @return <code>true</code> if all of the job's clients have lost interest in it
+         */
+        @Override
+        public final boolean isCancelled() {
+            return mIsCancelled;
+        }
+
+        /**
+         * Sends a message to each of the job's clients.  Called on a render thread.
+         * @param what The message code
+         * @param obj The message object
+         */
+        protected final void sendToClients(int what, @Nullable Object obj) {
+            for (Client client : mClients) {
+                client.sendMessage(client.obtainMessage(what, obj));
+            }
+        }
+
+        /**
+         * Sends the final message to each of the job's clients.  Once this has been called no
+         * more clients can join the job.  Called on a render thread.
+         * @param what The message code
+         * @param obj The message object
+         */
+        protected final synchronized void finish(int what, @Nullable Object obj) {
+            if (!mIsCancelled) {
+                sendToClients(what, obj);
+            }
+
+            mIsFinished = true;
+        }
+
+        @Override
+        public final void run() {
+            if (mIsCancelled) {
+                return;
+            }
+
+            Process.setThreadPriority((mPriority == PRIORITY_PREWARM) ?
+                    Process.THREAD_PRIORITY_LOWEST : Process.THREAD_PRIORITY_BACKGROUND);
+
+            try {
+                render();
+            } catch (RuntimeException | OutOfMemoryError e) {
+                // the clients are told below.  a failure on a pool thread would kill the process
+                Log.w(TAG, getClass().getSimpleName() + " failed", e);
+            } finally {
+                synchronized (this) {
+                    if (!mIsFinished && (mDoneMessage != NO_DONE_MESSAGE)) {
+                        // render() failed or gave up.  finish() sends nothing if cancelled
+                        finish(mDoneMessage, this);
+                    }
+
+                    mIsFinished = true;
+                }
+
+                if (mKey != null) {
+                    sSharedJobs.remove(mKey, this);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(@NonNull Job other) {
+            if (mPriority != other.mPriority) {
+                return (mPriority < other.mPriority) ? -1 : 1;
+            }
+
+            return (mSequence < other.mSequence) ? -1 : ((mSequence == other.mSequence) ? 0 : 1);
+        }
+
+        /**
+         * Adds a client, unless the job is too far along to take new ones.
+         * @param client The client, or <code>null</code> to mark the job as a prewarm job
+         * @return <code>true</code> if the client will get the job's messages
+         */
+        private synchronized boolean addClient(@Nullable Client client) {
+            if (mIsFinished || mIsCancelled) {
+                return false;
+            }
+
+            if (client == null) {
+                mIsPrewarm = true;
+            } else if (!mClients.contains(client)) {
+                mClients.add(client);
+            }
+
+            return true;
+        }
+
+        /**
+         * Removes a client, cancelling the job if it was the last one and the job isn't a prewarm
+         * job.
+         * @param client The client
+         * @return <code>true</code> if the job was cancelled
+         */
+        private synchronized boolean removeClient(@NonNull Client client) {
+            if (!mClients.remove(client) || !mClients.isEmpty() || mIsFinished || mIsPrewarm) {
+                return false;
+            }
+
+            mIsCancelled = true;
+            return true;
+        }
+    }
+}
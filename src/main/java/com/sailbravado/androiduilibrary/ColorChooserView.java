@@ -0,0 +1,586 @@
+package com.sailbravado.androiduilibrary;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.LinearGradient;
+import android.graphics.Paint;
+import android.graphics.RectF;
+import android.graphics.Shader;
+import android.os.Build;
+import android.os.Parcel;
+import android.os.Parcelable;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.View;
+
+/**
+ * A color chooser in a single View, for hosts like dialogs, list rows and popups where a
+ * {@link com.sailbravado.androiduilibrary.ColorChooserFragment ColorChooserFragment} would be too
+ * heavy.  The saturation/value gradient, the hue track, the opacity track and a swatch of the
+ * selected color are all drawn in one {@link #onDraw(Canvas)}, and the view handles its own
+ * touches.  Nothing is rendered in the background: the gradient and the opacity track are linear
+ * gradient shaders that are only rebuilt when the hue or the color changes, and the hue track and
+ * the checkerboard behind transparent colors are the same Bitmaps ColorChooserFragment and
+ * {@link com.sailbravado.androiduilibrary.SwatchGridView SwatchGridView} share through the
+ * {@link ColorChooserAssetCache}.
+ * <p><p>The gradient fills the width of the view, with the hue track and the opacity track below
+ * it and the swatch to their right.  Use the <code>colorTrackSize</code> and
+ * <code>colorPartSpacing</code> attributes to set the height of the tracks and the gap between the
+ * parts.  Set the color with {@link #setColor(int)} and listen for changes with
+ * {@link #setOnColorChangedListener(OnColorChangedListener)}.
+ */
+public class ColorChooserView extends View {
+    /**
+     * Default height of the hue and opacity tracks, in dp
+     */
+    private static final float DEFAULT_TRACK_SIZE_DP = 24;
+    /**
+     * Default gap between the parts of the view, in dp
+     */
+    private static final float DEFAULT_PART_SPACING_DP = 8;
+    /**
+     * The width to ask for when the width isn't fixed by the layout, in dp
+     */
+    private static final float PREFERRED_WIDTH_DP = 240;
+    /**
+     * Radius of the circle marking the selected color on the gradient, in dp
+     */
+    private static final float MARKER_RADIUS_DP = 8;
+    /**
+     * Width of the lines of the markers, in dp
+     */
+    private static final float MARKER_STROKE_WIDTH_DP = 2;
+    /**
+     * Width of the thumbs on the hue and opacity tracks, in dp
+     */
+    private static final float THUMB_WIDTH_DP = 6;
+    /**
+     * What a touch started on, and so what it changes until it ends
+     */
+    private static final int TOUCH_TARGET_NONE = 0;
+    private static final int TOUCH_TARGET_GRADIENT = 1;
+    private static final int TOUCH_TARGET_HUE = 2;
+    private static final int TOUCH_TARGET_OPACITY = 3;
+
+    /**
+     * The selected color in AARRGGBB format
+     */
+    private int mColorARGB = 0xff808080;
+    /**
+     * The selected color in HSV format.  The hue is kept for grays, which don't have one.
+     */
+    @NonNull
+    private final float[] mColorHSV = new float[3];
+    /**
+     * Scratch space for the fully saturated color of the hue, so dragging doesn't allocate
+     */
+    @NonNull
+    private final float[] mHueHSV = new float[] {0, 1, 1};
+    private int mTrackSize;
+    private int mPartSpacing;
+    private float mMarkerRadius;
+    private float mThumbWidth;
+    /**
+     * The background color the checkerboard is drawn for
+     */
+    private int mCheckerboardBackgroundColor;
+    @NonNull
+    private final RectF mGradientRect = new RectF();
+    @NonNull
+    private final RectF mHueTrackRect = new RectF();
+    @NonNull
+    private final RectF mOpacityTrackRect = new RectF();
+    @NonNull
+    private final RectF mSwatchRect = new RectF();
+    /**
+     * Saturation from left to right, for the current hue
+     */
+    @NonNull
+    private final Paint mSaturationPaint = new Paint();
+    /**
+     * Value from top to bottom: black fading to transparent over the saturation
+     */
+    @NonNull
+    private final Paint mValuePaint = new Paint();
+    /**
+     * Opacity from left to right, for the current color
+     */
+    @NonNull
+    private final Paint mOpacityPaint = new Paint();
+    @NonNull
+    private final Paint mCheckerboardPaint = new Paint();
+    @NonNull
+    private final Paint mSwatchPaint = new Paint();
+    @NonNull
+    private final Paint mBitmapPaint = new Paint(Paint.FILTER_BITMAP_FLAG);
+    @NonNull
+    private final Paint mMarkerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+    /**
+     * The hue track, or <code>null</code> until the view has a size
+     */
+    @Nullable
+    private Bitmap mHueBitmap = null;
+    private int mTouchTarget = TOUCH_TARGET_NONE;
+    @Nullable
+    private OnColorChangedListener mListener = null;
+
+    /**
+     * Simple constructor to use when creating a ColorChooserView from code.
+     * @see android.view.View#View(android.content.Context)
+     */
+    public ColorChooserView(Context context) {
+        super(context);
+        init(context, null);
+    }
+
+    /**
+     * Constructor called when creating a ColorChooserView from XML.
+     * @see android.view.View#View(android.content.Context, android.util.AttributeSet)
+     */
+    public ColorChooserView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    /**
+     * Perform inflation from XML and apply a class-specific base style from a theme attribute.
+     * @see android.view.View#View(android.content.Context, android.util.AttributeSet, int)
+     */
+    public ColorChooserView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context, attrs);
+    }
+
+    /**
+     * Perform inflation from XML and apply a class-specific base style from a theme attribute or
+     * style resource.
+     * @see android.view.View#View(android.content.Context, android.util.AttributeSet, int, int)
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public ColorChooserView(Context context, AttributeSet attrs, int defStyleAttr,
+                            int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+        init(context, attrs);
+    }
+
+    /**
+     * Common setup for all the constructors
+     */
+    private void init(Context context, @Nullable AttributeSet attrs) {
+        float density = getResources().getDisplayMetrics().density;
+        mTrackSize = (int) (DEFAULT_TRACK_SIZE_DP * density);
+        mPartSpacing = (int) (DEFAULT_PART_SPACING_DP * density);
+        mMarkerRadius = MARKER_RADIUS_DP * density;
+        mThumbWidth = THUMB_WIDTH_DP * density;
+
+        if (attrs != null) {
+            TypedArray a = context.getTheme().obtainStyledAttributes(
+                    attrs, R.styleable.ColorChooserView, 0, 0);
+
+            try {
+                mTrackSize = a.getDimensionPixelSize(R.styleable.ColorChooserView_colorTrackSize,
+                        mTrackSize);
+                mPartSpacing = a.getDimensionPixelSize(
+                        R.styleable.ColorChooserView_colorPartSpacing, mPartSpacing);
+            } finally {
+                a.recycle();
+            }
+        }
+
+        mSwatchPaint.setStyle(Paint.Style.FILL);
+        mMarkerPaint.setStyle(Paint.Style.STROKE);
+        mMarkerPaint.setStrokeWidth(MARKER_STROKE_WIDTH_DP * density);
+        Color.colorToHSV(mColorARGB, mColorHSV);
+
+        try {
+            mCheckerboardBackgroundColor = ColorUtils.themeBackgroundColor(context.getTheme());
+        } catch (RuntimeException e) {
+            mCheckerboardBackgroundColor = Color.WHITE;
+        }
+
+        mCheckerboardPaint.setShader(
+                ColorChooserBitmaps.createCheckerboardShader(mCheckerboardBackgroundColor));
+    }
+
+    /**
+     * Gets the selected color.
+     * @return The color in AARRGGBB format
+     */
+    public int getColor() {
+        return mColorARGB;
+    }
+
+    /**
+     * Sets the selected color.  Only the shaders that depend on what changed are rebuilt, so this
+     * is cheap enough to call on every frame of an animation.  This doesn't call the listener.
+     * @param color The color in AARRGGBB format
+     */
+    public void setColor(int color) {
+        if (color == mColorARGB) {
+            return;
+        }
+
+        int oldARGB = mColorARGB;
+        float oldHue = mColorHSV[0];
+        mColorARGB = color;
+        Color.colorToHSV(mColorARGB, mColorHSV);
+
+        // grays have no hue of their own, so keep the one the gradient already shows
+        if ((mColorHSV[1] == 0) || (mColorHSV[2] == 0)) {
+            mColorHSV[0] = oldHue;
+        }
+
+        if (mColorHSV[0] != oldHue) {
+            updateSaturationShader();
+        }
+
+        if ((mColorARGB & 0x00ffffff) != (oldARGB & 0x00ffffff)) {
+            updateOpacityShader();
+        }
+
+        invalidate();
+    }
+
+    /**
+     * Sets the background color the checkerboard behind transparent colors is drawn for.  The
+     * default is the theme background color.
+     * @param backgroundColor The background color
+     */
+    public void setCheckerboardBackgroundColor(int backgroundColor) {
+        if (backgroundColor != mCheckerboardBackgroundColor) {
+            mCheckerboardBackgroundColor = backgroundColor;
+            mCheckerboardPaint.setShader(
+                    ColorChooserBitmaps.createCheckerboardShader(mCheckerboardBackgroundColor));
+            invalidate();
+        }
+    }
+
+    /**
+     * Sets the callback for when the user changes the color.
+     * @param listener The listener, or <code>null</code> for none
+     */
+    public void setOnColorChangedListener(@Nullable OnColorChangedListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int horizontalPadding = getPaddingLeft() + getPaddingRight();
+        int width = resolveSize(horizontalPadding +
+                (int) (PREFERRED_WIDTH_DP * getResources().getDisplayMetrics().density),
+                widthMeasureSpec);
+
+        // the gradient is square if the height allows it
+        int height = resolveSize(getPaddingTop() + (width - horizontalPadding) +
+                (2 * (mPartSpacing + mTrackSize)) + getPaddingBottom(), heightMeasureSpec);
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        float left = getPaddingLeft();
+        float right = Math.max(left, w - getPaddingRight());
+        float bottom = Math.max(getPaddingTop(), h - getPaddingBottom());
+        float tracksHeight = (2 * mTrackSize) + mPartSpacing;
+        float tracksTop = Math.max(getPaddingTop(), bottom - tracksHeight);
+        float tracksRight = Math.max(left, right - tracksHeight - mPartSpacing);
+
+        // the swatch is as tall as both tracks together, and square
+        mGradientRect.set(left, getPaddingTop(), right,
+                Math.max(getPaddingTop(), tracksTop - mPartSpacing));
+        mHueTrackRect.set(left, tracksTop, tracksRight, tracksTop + mTrackSize);
+        mOpacityTrackRect.set(left, bottom - mTrackSize, tracksRight, bottom);
+        mSwatchRect.set(Math.min(right, tracksRight + mPartSpacing), tracksTop, right, bottom);
+
+        mValuePaint.setShader(new LinearGradient(0, mGradientRect.top, 0, mGradientRect.bottom,
+                Color.BLACK, Color.TRANSPARENT, Shader.TileMode.CLAMP));
+        updateSaturationShader();
+        updateOpacityShader();
+        updateHueBitmap();
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        // the gradient: saturation, then value over it
+        canvas.drawRect(mGradientRect, mSaturationPaint);
+        canvas.drawRect(mGradientRect, mValuePaint);
+
+        if (mHueBitmap != null) {
+            canvas.drawBitmap(mHueBitmap, null, mHueTrackRect, mBitmapPaint);
+        }
+
+        canvas.drawRect(mOpacityTrackRect, mCheckerboardPaint);
+        canvas.drawRect(mOpacityTrackRect, mOpacityPaint);
+
+        if ((mColorARGB >>> 24) != 0xff) {
+            canvas.drawRect(mSwatchRect, mCheckerboardPaint);
+        }
+
+        mSwatchPaint.setColor(mColorARGB);
+        canvas.drawRect(mSwatchRect, mSwatchPaint);
+
+        // the markers show up against the selected color, which is what's under the circle
+        mMarkerPaint.setColor(ColorUtils.isDark(mColorARGB | 0xff000000) ?
+                Color.WHITE : Color.BLACK);
+        canvas.drawCircle(mGradientRect.left + (mColorHSV[1] * mGradientRect.width()),
+                mGradientRect.top + (mColorHSV[2] * mGradientRect.height()), mMarkerRadius,
+                mMarkerPaint);
+        drawThumb(canvas, mHueTrackRect, mColorHSV[0] / 360);
+        drawThumb(canvas, mOpacityTrackRect, (mColorARGB >>> 24) / 255f);
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        float x = event.getX();
+        float y = event.getY();
+
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_DOWN:
+                mTouchTarget = getTouchTargetAt(x, y);
+
+                if (mTouchTarget == TOUCH_TARGET_NONE) {
+                    return false;
+                }
+
+                // keep a scrolling parent from taking over the drag
+                if (getParent() != null) {
+                    getParent().requestDisallowInterceptTouchEvent(true);
+                }
+
+                setColorFromTouch(x, y);
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                setColorFromTouch(x, y);
+                break;
+
+            case MotionEvent.ACTION_UP:
+                setColorFromTouch(x, y);
+                mTouchTarget = TOUCH_TARGET_NONE;
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                mTouchTarget = TOUCH_TARGET_NONE;
+                break;
+        }
+
+        return true;
+    }
+
+    @Override
+    protected Parcelable onSaveInstanceState() {
+        SavedState savedState = new SavedState(super.onSaveInstanceState());
+        savedState.mColor = mColorARGB;
+        return savedState;
+    }
+
+    @Override
+    protected void onRestoreInstanceState(Parcelable state) {
+        if (!(state instanceof SavedState)) {
+            super.onRestoreInstanceState(state);
+            return;
+        }
+
+        SavedState savedState = (SavedState) state;
+        super.onRestoreInstanceState(savedState.getSuperState());
+        setColor(savedState.mColor);
+    }
+
+    /**
+     * Draws the thumb of a track.
+     * @param canvas The canvas
+     * @param trackRect The track
+     * @param position Where the thumb goes along the track, 0 to 1
+     */
+    private void drawThumb(@NonNull Canvas canvas, @NonNull RectF trackRect, float position) {
+        // keep the thumb inside the track at either end
+        float halfWidth = mThumbWidth / 2;
+        float center = trackRect.left + halfWidth + (position * (trackRect.width() - mThumbWidth));
+        mMarkerPaint.setColor(Color.BLACK);
+        canvas.drawRect(center - halfWidth, trackRect.top, center + halfWidth, trackRect.bottom,
+                mMarkerPaint);
+    }
+
+    /**
+     * Finds which part of the view a point is on.
+     * @return One of the <code>TOUCH_TARGET_...</code> values
+     */
+    private int getTouchTargetAt(float x, float y) {
+        if (contains(mGradientRect, x, y)) {
+            return TOUCH_TARGET_GRADIENT;
+        } else if (contains(mHueTrackRect, x, y)) {
+            return TOUCH_TARGET_HUE;
+        } else if (contains(mOpacityTrackRect, x, y)) {
+            return TOUCH_TARGET_OPACITY;
+        }
+
+        return TOUCH_TARGET_NONE;
+    }
+
+    /**
+     * Changes the color from a touch on the part of the view the gesture started on, and tells the
+     * listener if it changed.  Touches outside that part are clamped to its edges.
+     */
+    private void setColorFromTouch(float x, float y) {
+        int oldARGB = mColorARGB;
+        int alpha = mColorARGB >>> 24;
+
+        switch (mTouchTarget) {
+            case TOUCH_TARGET_GRADIENT:
+                mColorHSV[1] = fractionOf(x, mGradientRect.left, mGradientRect.right);
+                mColorHSV[2] = fractionOf(y, mGradientRect.top, mGradientRect.bottom);
+                break;
+
+            case TOUCH_TARGET_HUE:
+                // 360 is the same as 0, but the thumb should stay at the end of the track
+                mColorHSV[0] = Math.min(359.9f,
+                        360 * fractionOf(x, mHueTrackRect.left, mHueTrackRect.right));
+                updateSaturationShader();
+                break;
+
+            case TOUCH_TARGET_OPACITY:
+                alpha = Math.round(255 *
+                        fractionOf(x, mOpacityTrackRect.left, mOpacityTrackRect.right));
+                break;
+
+            default:
+                return;
+        }
+
+        mColorARGB = Color.HSVToColor(alpha, mColorHSV);
+
+        if ((mColorARGB & 0x00ffffff) != (oldARGB & 0x00ffffff)) {
+            updateOpacityShader();
+        }
+
+        // the hue can change without the color changing (on the black edge of the gradient), but
+        // the track still needs redrawing
+        invalidate();
+
+        if ((mColorARGB != oldARGB) && (mListener != null)) {
+            mListener.onColorChanged(this, mColorARGB);
+        }
+    }
+
+    /**
+     * Points the saturation paint at a gradient from white to the fully saturated current hue.
+     */
+    private void updateSaturationShader() {
+        mHueHSV[0] = mColorHSV[0];
+        mSaturationPaint.setShader(new LinearGradient(mGradientRect.left, 0, mGradientRect.right,
+                0, Color.WHITE, Color.HSVToColor(mHueHSV), Shader.TileMode.CLAMP));
+    }
+
+    /**
+     * Points the opacity paint at a gradient from transparent to opaque in the current color.
+     */
+    private void updateOpacityShader() {
+        mOpacityPaint.setShader(new LinearGradient(mOpacityTrackRect.left, 0,
+                mOpacityTrackRect.right, 0, mColorARGB & 0x00ffffff, mColorARGB | 0xff000000,
+                Shader.TileMode.CLAMP));
+    }
+
+    /**
+     * Gets the hue track for the current size from the {@link ColorChooserAssetCache}, drawing it
+     * if it isn't there.  The track is a single row of pixels that's stretched to the height of
+     * the track.
+     */
+    private void updateHueBitmap() {
+        int width = (int) mHueTrackRect.width();
+        int height = (int) mHueTrackRect.height();
+
+        if ((width <= 0) || (height <= 0)) {
+            mHueBitmap = null;
+            return;
+        }
+
+        String key = ColorChooserAssetCache.hueSeekBarKey(width, height, 0, false);
+        mHueBitmap = ColorChooserAssetCache.get(key);
+
+        if (mHueBitmap == null) {
+            // a single row of pixels takes microseconds, so there's no need to draw it in the
+            // background
+            mHueBitmap = ColorChooserBitmaps.drawHueSeekBarBitmap(width, height, 0, false);
+            ColorChooserAssetCache.put(key, mHueBitmap);
+        }
+    }
+
+    /**
+     * Determines whether a point is inside a rectangle that isn't empty.
+     */
+    private static boolean contains(@NonNull RectF rect, float x, float y) {
+        return (rect.left < rect.right) && (rect.top < rect.bottom) && (x >= rect.left) &&
+                (x < rect.right) && (y >= rect.top) && (y < rect.bottom);
+    }
+
+    /**
+     * Finds how far a coordinate is between two others, clamped to 0 to 1.
+     */
+    private static float fractionOf(float coordinate, float start, float end) {
+        if (end <= start) {
+            return 0;
+        }
+
+        return Math.max(0, Math.min(1, (coordinate - start) / (end - start)));
+    }
+
+    /**
+     * Interface for receiving changes the user makes to the color.
+     */
+    public interface OnColorChangedListener {
+        /**
+         * Called when the user changes the color.
+         * @param view The ColorChooserView
+         * @param color The new color, in AARRGGBB format
+         */
+        public void onColorChanged(ColorChooserView view, int color);
+    }
+
+    /**
+     * The state of a ColorChooserView saved across configuration changes: just the color
+     */
+    static class SavedState extends BaseSavedState {
+        private int mColor;
+
+        SavedState(Parcelable superState) {
+            super(superState);
+        }
+
+        private SavedState(Parcel source) {
+            super(source);
+            mColor = source.readInt();
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            super.writeToParcel(dest, flags);
+            dest.writeInt(mColor);
+        }
+
+        public static final Parcelable.Creator<SavedState> CREATOR =
+                new Parcelable.Creator<SavedState>() {
+            @Override
+            public SavedState createFromParcel(Parcel source) {
+                return new SavedState(source);
+            }
+
+            @Override
+            public SavedState[] newArray(int size) {
+                return new SavedState[size];
+            }
+        };
+    }
+}
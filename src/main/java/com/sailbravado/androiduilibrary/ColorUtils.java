@@ -74,4 +74,22 @@ public class ColorUtils {
                 Color.green(color) * 0.587 +
                 Color.blue(color) * 0.114) < 186.0;
     }
+
+    /**
+     * Determines which of a set of colors are "dark", using the same test as
+     * {@link #isDark(int)}.  This works directly on the packed color values, so it's much faster
+     * than calling isDark(int) once per color when there are a lot of them.
+     * @param colors the colors to test
+     * @param isDark receives the results: <code>isDark[i]</code> is <code>true</code> if
+     *               <code>colors[i]</code> is dark.  Must be at least as long as colors.
+     */
+    public static void isDark(@NonNull int[] colors, @NonNull boolean[] isDark) {
+        for (int i = 0; i < colors.length; i++) {
+            int color = colors[i];
+
+            // the same weights as isDark(int), scaled by 1000 to stay in integers
+            isDark[i] = ((((color >> 16) & 0xff) * 299) + (((color >> 8) & 0xff) * 587) +
+                    ((color & 0xff) * 114)) < 186000;
+        }
+    }
 }
@@ -0,0 +1,504 @@
+package com.sailbravado.androiduilibrary;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads images for {@link com.sailbravado.androiduilibrary.SquareImageView SquareImageView} in
+ * the background.  Images are decoded on a small pool of background threads, downsampled with
+ * {@link BitmapFactory.Options#inSampleSize} to the smallest power of two that still covers the
+ * view, and kept in a process-wide memory cache sized in bytes.  The cache is keyed by the source
+ * and the size decoded for, so a grid of views the same size shares its images.
+ * <p><p>The loader keeps track of which Bitmaps are being shown.  Once a Bitmap has left the cache
+ * and no view shows it any more, it's kept for decoding the next image into (see
+ * {@link BitmapFactory.Options#inBitmap}), so scrolling through a gallery doesn't allocate and
+ * collect a Bitmap per image.  Except where noted, the methods of this class must be called from
+ * the UI thread.
+ */
+final class SquareImageLoader {
+    /**
+     * The portion of the maximum heap to give to the cache
+     */
+    private static final int HEAP_FRACTION = 8;
+    /**
+     * The most Bitmaps to keep for decoding into
+     */
+    private static final int MAX_REUSABLE_BITMAPS = 8;
+    /**
+     * The maximum number of images decoded at the same time
+     */
+    private static final int MAX_CONCURRENT_DECODES =
+            Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() - 1));
+    /**
+     * How long an idle decoding thread waits for a new request before it goes away, in seconds
+     */
+    private static final int KEEP_ALIVE_SECONDS = 1;
+    /**
+     * Message sent to the UI thread when a request has finished decoding
+     */
+    private static final int MESSAGE_DECODED = 1;
+
+    /**
+     * The thread pool
+     */
+    @NonNull
+    private static final ThreadPoolExecutor sExecutor;
+    /**
+     * The decoded images, sized in bytes
+     */
+    @NonNull
+    private static final BitmapLruCache sCache =
+            new BitmapLruCache((int) (Runtime.getRuntime().maxMemory() / HEAP_FRACTION)) {
+                @Override
+                protected void onRemoved(@NonNull Bitmap bitmap) {
+                    // a Bitmap still on screen can't be decoded into until it's let go.  the
+                    // cache is only changed on the UI thread, so the display counts are safe
+                    if (sDisplayCounts.containsKey(bitmap)) {
+                        sUncachedBitmaps.add(bitmap);
+                    } else {
+                        addReusableBitmap(bitmap);
+                    }
+                }
+            };
+    /**
+     * The number of views showing each Bitmap from the cache
+     */
+    @NonNull
+    private static final HashMap<Bitmap, Integer> sDisplayCounts = new HashMap<>();
+    /**
+     * Bitmaps that have left the cache but are still being shown
+     */
+    @NonNull
+    private static final HashSet<Bitmap> sUncachedBitmaps = new HashSet<>();
+    /**
+     * Bitmaps nobody is using, to decode into.  Used from the decoding threads too, so it's only
+     * touched while synchronized on itself.
+     */
+    @NonNull
+    private static final ArrayList<Bitmap> sReusableBitmaps = new ArrayList<>();
+    /**
+     * Receives decoded images on the UI thread
+     */
+    @NonNull
+    private static final Handler sHandler = new DecodeHandler();
+
+    static {
+        sExecutor = new ThreadPoolExecutor(MAX_CONCURRENT_DECODES, MAX_CONCURRENT_DECODES,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger(1);
+
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(new Runnable() {
+                            @Override
+                            public void run() {
+                                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                                runnable.run();
+                            }
+                        }, "SquareImageLoader #" + mCount.getAndIncrement());
+                    }
+                });
+        sExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Static class...don't instantiate
+     */
+    private SquareImageLoader() {
+    }
+
+    /**
+     * Starts a request.  If the image is in the cache it's returned straight away, and the
+     * request is never run.
+     * @param request The request, which must not have been started before
+     * @param width The width to decode for, in pixels
+     * @param height The height to decode for, in pixels
+     * @return The image if it's in the cache, otherwise <code>null</code>; the request's view is
+     * then given the image when it's ready
+     */
+    @Nullable
+    static Bitmap start(@NonNull Request request, int width, int height) {
+        request.mIsStarted = true;
+        request.mWidth = width;
+        request.mHeight = height;
+        request.mKey = request.mSourceKey + "@" + width + "x" + height;
+        Bitmap bitmap = sCache.get(request.mKey);
+
+        if (bitmap == null) {
+            sExecutor.execute(request);
+        }
+
+        return bitmap;
+    }
+
+    /**
+     * Cancels a request.  If it's being decoded, the decoding is stopped as soon as possible.
+     * @param request The request
+     */
+    static void cancel(@NonNull Request request) {
+        request.mIsCancelled = true;
+        BitmapFactory.Options options = request.mOptions;
+
+        if (options != null) {
+            options.requestCancelDecode();
+        }
+
+        sExecutor.remove(request);
+    }
+
+    /**
+     * Records that a view has started showing a Bitmap from the loader.
+     */
+    static void acquire(@NonNull Bitmap bitmap) {
+        Integer count = sDisplayCounts.get(bitmap);
+        sDisplayCounts.put(bitmap, (count == null) ? 1 : (count + 1));
+    }
+
+    /**
+     * Records that a view has stopped showing a Bitmap from the loader.
+     */
+    static void release(@NonNull Bitmap bitmap) {
+        Integer count = sDisplayCounts.get(bitmap);
+
+        if ((count != null) && (count > 1)) {
+            sDisplayCounts.put(bitmap, count - 1);
+            return;
+        }
+
+        sDisplayCounts.remove(bitmap);
+
+        if (sUncachedBitmaps.remove(bitmap)) {
+            addReusableBitmap(bitmap);
+        }
+    }
+
+    /**
+     * Keeps a Bitmap nobody is using to decode into.  Before KitKat a Bitmap can only be decoded
+     * into by an image of exactly the same size that isn't downsampled, which is too rare to be
+     * worth keeping them for.
+     */
+    private static void addReusableBitmap(@NonNull Bitmap bitmap) {
+        if ((Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) || !bitmap.isMutable() ||
+                bitmap.isRecycled()) {
+            return;
+        }
+
+        synchronized (sReusableBitmaps) {
+            if (sReusableBitmaps.size() >= MAX_REUSABLE_BITMAPS) {
+                sReusableBitmaps.remove(0);
+            }
+
+            sReusableBitmaps.add(bitmap);
+        }
+    }
+
+    /**
+     * Finds a Bitmap big enough to decode into.  Called on a decoding thread.
+     * @param byteCount The number of bytes the decoded image needs
+     * @return The Bitmap, or <code>null</code> if there isn't one
+     */
+    @Nullable
+    private static Bitmap takeReusableBitmap(int byteCount) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.KITKAT) {
+            return null;
+        }
+
+        synchronized (sReusableBitmaps) {
+            for (int i = 0; i < sReusableBitmaps.size(); i++) {
+                Bitmap bitmap = sReusableBitmaps.get(i);
+
+                if (bitmap.getAllocationByteCount() >= byteCount) {
+                    sReusableBitmaps.remove(i);
+                    return bitmap;
+                }
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Returns the largest power of two to downsample an image by that still leaves it at least as
+     * big as the view in both dimensions.
+     */
+    private static int sampleSizeOf(int imageWidth, int imageHeight, int width, int height) {
+        int sampleSize = 1;
+
+        while (((imageWidth / (sampleSize * 2)) >= width) &&
+                ((imageHeight / (sampleSize * 2)) >= height)) {
+            sampleSize *= 2;
+        }
+
+        return sampleSize;
+    }
+
+    /**
+     * A request to load an image from a content or file URI, a file or a resource.  Requests are
+     * run once; to load the same image again (say, after the view has been detached) make a
+     * {@link #copy()}.
+     */
+    static final class Request implements Runnable {
+        /**
+         * The view to give the image to
+         */
+        @NonNull
+        private final WeakReference<SquareImageView> mViewReference;
+        /**
+         * The application context, used to open the image
+         */
+        @NonNull
+        private final Context mContext;
+        /**
+         * The URI of the image, if it has one
+         */
+        @Nullable
+        private final Uri mUri;
+        /**
+         * The file of the image, if it has one
+         */
+        @Nullable
+        private final File mFile;
+        /**
+         * The resource ID of the image, if it's a resource
+         */
+        private final int mResId;
+        /**
+         * Identifies the image, whatever the size it's decoded for
+         */
+        @NonNull
+        private final String mSourceKey;
+        /**
+         * The key of the decoded image in the cache
+         */
+        private String mKey;
+        /**
+         * The width to decode for
+         */
+        private int mWidth;
+        /**
+         * The height to decode for
+         */
+        private int mHeight;
+        /**
+         * If <code>true</code> the request has been started
+         */
+        private boolean mIsStarted = false;
+        /**
+         * If <code>true</code> the request has been cancelled
+         */
+        private volatile boolean mIsCancelled = false;
+        /**
+         * The options of the decode in progress, so that it can be cancelled
+         */
+        @Nullable
+        private volatile BitmapFactory.Options mOptions = null;
+        /**
+         * The decoded image
+         */
+        @Nullable
+        private Bitmap mBitmap = null;
+
+        /**
+         * Creates a request for the image at a URI.
+         * @param view The view to give the image to
+         * @param uri A <code>content:</code>, <code>file:</code> or
+         *            <code>android.resource:</code> URI
+         */
+        Request(@NonNull SquareImageView view, @NonNull Uri uri) {
+            this(view, uri, null, 0, "uri:" + uri);
+        }
+
+        /**
+         * Creates a request for the image in a file.
+         * @param view The view to give the image to
+         * @param file The file
+         */
+        Request(@NonNull SquareImageView view, @NonNull File file) {
+            this(view, null, file, 0, "file:" + file.getPath());
+        }
+
+        /**
+         * Creates a request for an image resource.
+         * @param view The view to give the image to
+         * @param resId The resource ID of the image
+         */
+        Request(@NonNull SquareImageView view, int resId) {
+            this(view, null, null, resId, "res:" + resId);
+        }
+
+        private Request(@NonNull SquareImageView view, @Nullable Uri uri, @Nullable File file,
+                        int resId, @NonNull String sourceKey) {
+            mViewReference = new WeakReference<>(view);
+            mContext = view.getContext().getApplicationContext();
+            mUri = uri;
+            mFile = file;
+            mResId = resId;
+            mSourceKey = sourceKey;
+        }
+
+        /**
+         * @return A new, unstarted request for the same image and view
+         */
+        @NonNull
+        Request copy() {
+            SquareImageView view = mViewReference.get();
+            return (view == null) ? this :
+                    new Request(view, mUri, mFile, mResId, mSourceKey);
+        }
+
+        /**
+         * @return <code>true</code> if the request has been started
+         */
+        boolean isStarted() {
+            return mIsStarted;
+        }
+
+        @Override
+        public void run() {
+            if (mIsCancelled) {
+                return;
+            }
+
+            mBitmap = decode();
+            sHandler.obtainMessage(MESSAGE_DECODED, this).sendToTarget();
+        }
+
+        /**
+         * Decodes the image, downsampled for the view.  Called on a decoding thread.
+         * @return The image, or <code>null</code> if it couldn't be decoded or the request was
+         * cancelled
+         */
+        @Nullable
+        private Bitmap decode() {
+            BitmapFactory.Options options = new BitmapFactory.Options();
+            mOptions = options;
+            options.inJustDecodeBounds = true;
+            decodeStream(options);
+
+            if (mIsCancelled || (options.outWidth <= 0) || (options.outHeight <= 0)) {
+                return null;
+            }
+
+            int sampleSize = sampleSizeOf(options.outWidth, options.outHeight, mWidth, mHeight);
+            int sampledWidth = (options.outWidth + sampleSize - 1) / sampleSize;
+            int sampledHeight = (options.outHeight + sampleSize - 1) / sampleSize;
+            Bitmap reusableBitmap = takeReusableBitmap(sampledWidth * sampledHeight * 4);
+            options.inJustDecodeBounds = false;
+            options.inSampleSize = sampleSize;
+            options.inMutable = true;
+            options.inBitmap = reusableBitmap;
+            Bitmap bitmap = decodeStream(options);
+
+            if ((bitmap == null) && (reusableBitmap != null) && !mIsCancelled) {
+                // the image can't go in that Bitmap after all...give it its own
+                options.inBitmap = null;
+                bitmap = decodeStream(options);
+            }
+
+            if ((reusableBitmap != null) && (bitmap != reusableBitmap)) {
+                addReusableBitmap(reusableBitmap);
+            }
+
+            return bitmap;
+        }
+
+        /**
+         * Opens the image and decodes it with the given options.  Called on a decoding thread.
+         * @return The image, or <code>null</code> if it couldn't be decoded or only its bounds
+         * were wanted
+         */
+        @Nullable
+        private Bitmap decodeStream(@NonNull BitmapFactory.Options options) {
+            InputStream stream = null;
+
+            try {
+                if (mUri != null) {
+                    stream = mContext.getContentResolver().openInputStream(mUri);
+                } else if (mFile != null) {
+                    stream = new FileInputStream(mFile);
+                } else {
+                    // not decodeResource(), which would scale the image for the screen density
+                    stream = mContext.getResources().openRawResource(mResId);
+                }
+
+                return BitmapFactory.decodeStream(stream, null, options);
+            } catch (IOException | RuntimeException e) {
+                // an image that can't be read, or won't fit in the Bitmap it was given
+                return null;
+            } finally {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        // nothing more to do
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Puts decoded images in the cache and gives them to their views, on the UI thread
+     */
+    private static class DecodeHandler extends Handler {
+        DecodeHandler() {
+            super(Looper.getMainLooper());
+        }
+
+        @Override
+        public void handleMessage(Message msg) {
+            if (msg.what != MESSAGE_DECODED) {
+                return;
+            }
+
+            Request request = (Request) msg.obj;
+            Bitmap bitmap = request.mBitmap;
+            request.mBitmap = null;
+
+            if (bitmap == null) {
+                return;
+            }
+
+            // another request for the same image may have got there first
+            Bitmap cachedBitmap = sCache.get(request.mKey);
+
+            if (cachedBitmap != null) {
+                addReusableBitmap(bitmap);
+                bitmap = cachedBitmap;
+            } else {
+                sCache.put(request.mKey, bitmap);
+            }
+
+            // even if the request was cancelled, the image is worth keeping in the cache
+            SquareImageView view = request.mViewReference.get();
+
+            if (!request.mIsCancelled && (view != null)) {
+                view.onImageLoaded(request, bitmap);
+            }
+        }
+    }
+}
@@ -3,11 +3,18 @@ package com.sailbravado.androiduilibrary;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
+import android.graphics.drawable.Drawable;
+import android.net.Uri;
 import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.util.AttributeSet;
+import android.view.ViewGroup;
 import android.view.ViewTreeObserver;
 import android.widget.ImageView;
 
+import java.io.File;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -20,13 +27,76 @@ import java.util.Map;
  * dimension will size itself to match the other.  That dimension will ignore the corresponding
  * <code>layout_</code> attribute.  The default is neither (which is in essence a regular
  * <code>ImageView</code>).
+ * <p><p>Images can be loaded in the background with {@link #loadImage(Uri)},
+ * {@link #loadImage(File)} or {@link #loadImageResource(int)}.  They're downsampled to the size
+ * of the SquareImageView and cached in memory, and loading is cancelled if the SquareImageView
+ * is given another image or is detached, so it suits views that are recycled in a scrolling
+ * gallery.
  * <p><p>Created by John Riehl on 4/19/2015.
  */
 public class SquareImageView extends ImageView {
+    /**
+     * The number of results kept in the measure cache.  Parents such as grids measure each child
+     * with a couple of different specs in a pass, so one isn't enough.
+     */
+    private static final int MEASURE_CACHE_SIZE = 4;
+
     /**
      * The dimension that resizes to match its counterpart.
      */
     protected DependentDimension mDependentDimension = DependentDimension.NEITHER;
+    /**
+     * Recent results of {@link #onMeasure(int, int)}.  From KitKat on, View.measure() already
+     * skips onMeasure() for a pair of specs it has seen since the last layout request, so this
+     * mostly helps older versions, and measures after forceLayout(), which list views call on
+     * the children they recycle.
+     */
+    @NonNull
+    private final MeasureCacheEntry[] mMeasureCache = new MeasureCacheEntry[MEASURE_CACHE_SIZE];
+    /**
+     * The number of valid entries in {@link #mMeasureCache}.  It's cleared by requestLayout(),
+     * which the superclass constructor calls, so it mustn't have an initializer.
+     */
+    private int mMeasureCacheCount;
+    /**
+     * The entry in {@link #mMeasureCache} to replace next once it's full
+     */
+    private int mMeasureCacheNext = 0;
+    /**
+     * The intrinsic width of the image being replaced, or <code>Integer.MIN_VALUE</code> if there
+     * was none.  Set before the superclass changes the image, including from its constructor, so
+     * it mustn't have an initializer.
+     */
+    private int mPreviousDrawableWidth;
+    /**
+     * The intrinsic height of the image being replaced, as for {@link #mPreviousDrawableWidth}
+     */
+    private int mPreviousDrawableHeight;
+    /**
+     * If <code>true</code>, the superclass is in the middle of changing the image.  It's set by
+     * the superclass constructor (through setImageDrawable()), so it mustn't have an initializer.
+     */
+    private boolean mIsChangingImage;
+    /**
+     * The background load of the image, if there's one waiting to start or running
+     */
+    @Nullable
+    private SquareImageLoader.Request mImageRequest = null;
+    /**
+     * The image from the last background load, while it's being shown
+     */
+    @Nullable
+    private Bitmap mLoadedBitmap = null;
+    /**
+     * The background load that {@link #mLoadedBitmap} came from, to load it again if the
+     * SquareImageView is detached and attached again
+     */
+    @Nullable
+    private SquareImageLoader.Request mLoadedRequest = null;
+    /**
+     * If <code>true</code>, the image from a background load is being set
+     */
+    private boolean mIsShowingLoadedImage = false;
 
     /**
      * Simple constructor to use when creating a SquareImageView from code.
@@ -82,6 +152,42 @@ public class SquareImageView extends ImageView {
 
     @Override
     protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        // if the controlling dimension is exact, that's the answer whatever the image is
+        if (isSizeFixedBy(widthMeasureSpec, heightMeasureSpec)) {
+            int widthSize = MeasureSpec.getSize(widthMeasureSpec);
+            int heightSize = MeasureSpec.getSize(heightMeasureSpec);
+
+            switch (mDependentDimension) {
+                case HORIZONTAL:
+                    setMeasuredDimension(heightSize, heightSize);
+                    break;
+
+                case VERTICAL:
+                    setMeasuredDimension(widthSize, widthSize);
+                    break;
+
+                case NEITHER:
+                    setMeasuredDimension(widthSize, heightSize);
+                    break;
+            }
+
+            return;
+        }
+
+        // otherwise the superclass has to scale the image to fit, unless it's been done already
+        int drawableWidth = drawableWidthOf(getDrawable());
+        int drawableHeight = drawableHeightOf(getDrawable());
+
+        for (int i = 0; i < mMeasureCacheCount; i++) {
+            MeasureCacheEntry entry = mMeasureCache[i];
+
+            if (entry.matches(widthMeasureSpec, heightMeasureSpec, drawableWidth, drawableHeight,
+                    mDependentDimension)) {
+                setMeasuredDimension(entry.mMeasuredWidth, entry.mMeasuredHeight);
+                return;
+            }
+        }
+
         // on the measure pass, set measured dimensions according to the setting of the dependent
         // dimension
         super.onMeasure(widthMeasureSpec, heightMeasureSpec);
@@ -103,6 +209,374 @@ public class SquareImageView extends ImageView {
                 setMeasuredDimension(width, height);
                 break;
         }
+
+        MeasureCacheEntry entry;
+
+        if (mMeasureCacheCount < MEASURE_CACHE_SIZE) {
+            entry = mMeasureCache[mMeasureCacheCount];
+
+            if (entry == null) {
+                entry = new MeasureCacheEntry();
+                mMeasureCache[mMeasureCacheCount] = entry;
+            }
+
+            mMeasureCacheCount++;
+        } else {
+            entry = mMeasureCache[mMeasureCacheNext];
+            mMeasureCacheNext = (mMeasureCacheNext + 1) % MEASURE_CACHE_SIZE;
+        }
+
+        entry.set(widthMeasureSpec, heightMeasureSpec, drawableWidth, drawableHeight,
+                mDependentDimension, getMeasuredWidth(), getMeasuredHeight());
+    }
+
+    @Override
+    public void requestLayout() {
+        if (mIsChangingImage && isImageSizeIrrelevant()) {
+            // the new image can't change our size, and the superclass has already fitted it to
+            // the bounds we have, so it just needs drawing
+            invalidate();
+            return;
+        }
+
+        // most of what can change the measurement other than the specs and the image (padding,
+        // minimum sizes and so on) requests a layout.  the setters below don't always
+        mMeasureCacheCount = 0;
+        super.requestLayout();
+    }
+
+    @Override
+    public void setMaxWidth(int maxWidth) {
+        // the superclass only sets a field
+        mMeasureCacheCount = 0;
+        super.setMaxWidth(maxWidth);
+    }
+
+    @Override
+    public void setMaxHeight(int maxHeight) {
+        // the superclass only sets a field
+        mMeasureCacheCount = 0;
+        super.setMaxHeight(maxHeight);
+    }
+
+    @Override
+    public void setAdjustViewBounds(boolean adjustViewBounds) {
+        // the superclass only requests a layout if this changes the scale type
+        mMeasureCacheCount = 0;
+        super.setAdjustViewBounds(adjustViewBounds);
+    }
+
+    @Override
+    public void setImageDrawable(Drawable drawable) {
+        // setImageBitmap() comes through here too
+        Bitmap previousBitmap = onImageChanging();
+        mPreviousDrawableWidth = drawableWidthOf(getDrawable());
+        mPreviousDrawableHeight = drawableHeightOf(getDrawable());
+        mIsChangingImage = true;
+
+        try {
+            super.setImageDrawable(drawable);
+        } finally {
+            mIsChangingImage = false;
+            releaseAfterFrame(previousBitmap);
+        }
+    }
+
+    @Override
+    public void setImageResource(int resId) {
+        Bitmap previousBitmap = onImageChanging();
+        mPreviousDrawableWidth = drawableWidthOf(getDrawable());
+        mPreviousDrawableHeight = drawableHeightOf(getDrawable());
+        mIsChangingImage = true;
+
+        try {
+            super.setImageResource(resId);
+        } finally {
+            mIsChangingImage = false;
+            releaseAfterFrame(previousBitmap);
+        }
+    }
+
+    @Override
+    public void setImageURI(Uri uri) {
+        Bitmap previousBitmap = onImageChanging();
+        mPreviousDrawableWidth = drawableWidthOf(getDrawable());
+        mPreviousDrawableHeight = drawableHeightOf(getDrawable());
+        mIsChangingImage = true;
+
+        try {
+            super.setImageURI(uri);
+        } finally {
+            mIsChangingImage = false;
+            releaseAfterFrame(previousBitmap);
+        }
+    }
+
+    /**
+     * Loads the image at a URI in the background, downsampled to the size of the
+     * SquareImageView.  The current image is cleared straight away, and the new one is shown when
+     * it's ready (at once if it's in the memory cache).
+     * @param uri A <code>content:</code>, <code>file:</code> or <code>android.resource:</code> URI
+     */
+    public void loadImage(@NonNull Uri uri) {
+        startImageLoad(new SquareImageLoader.Request(this, uri));
+    }
+
+    /**
+     * Loads the image in a file in the background.  See {@link #loadImage(Uri)}.
+     * @param file The file
+     */
+    public void loadImage(@NonNull File file) {
+        startImageLoad(new SquareImageLoader.Request(this, file));
+    }
+
+    /**
+     * Loads an image resource in the background.  See {@link #loadImage(Uri)}.
+     * @param resId The resource ID of the image
+     */
+    public void loadImageResource(int resId) {
+        startImageLoad(new SquareImageLoader.Request(this, resId));
+    }
+
+    /**
+     * Cancels the background load of the image, if there is one.  Setting the image any other way
+     * does this too.
+     */
+    public void cancelImageLoad() {
+        if (mImageRequest != null) {
+            SquareImageLoader.cancel(mImageRequest);
+            mImageRequest = null;
+        }
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+
+        // the image is decoded for the size, so a load that's already going is out of date
+        stopImageLoad();
+
+        startPendingImageLoad();
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        startPendingImageLoad();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        // stop loading while nobody can see the image, but carry on if it's attached again
+        stopImageLoad();
+
+        // a view that's thrown away never lets go of its image, and the loader can't reuse a
+        // Bitmap that's still shown, so let go of it now.  if the view is attached again the
+        // image is loaded again, from the memory cache if it's still there
+        if (mLoadedRequest != null) {
+            SquareImageLoader.Request request = mLoadedRequest.copy();
+            setImageDrawable(null);
+            mImageRequest = request;
+        }
+
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Called by {@link SquareImageLoader} when an image has been loaded.
+     * @param request The request that loaded it
+     * @param bitmap The image
+     */
+    void onImageLoaded(@NonNull SquareImageLoader.Request request, @NonNull Bitmap bitmap) {
+        if (request == mImageRequest) {
+            mImageRequest = null;
+            showLoadedImage(request, bitmap);
+        }
+    }
+
+    /**
+     * Clears the image and starts loading a new one in the background.
+     */
+    private void startImageLoad(@NonNull SquareImageLoader.Request request) {
+        // this cancels any earlier load
+        setImageDrawable(null);
+        mImageRequest = request;
+        startPendingImageLoad();
+    }
+
+    /**
+     * Starts the background load of the image, if there's one waiting and the size it should be
+     * decoded for is known.
+     */
+    private void startPendingImageLoad() {
+        SquareImageLoader.Request request = mImageRequest;
+        int width = getWidth() - getPaddingLeft() - getPaddingRight();
+        int height = getHeight() - getPaddingTop() - getPaddingBottom();
+
+        if ((request == null) || request.isStarted() || (width <= 0) || (height <= 0)) {
+            return;
+        }
+
+        Bitmap bitmap = SquareImageLoader.start(request, width, height);
+
+        if (bitmap != null) {
+            mImageRequest = null;
+            showLoadedImage(request, bitmap);
+        }
+    }
+
+    /**
+     * Cancels the background load of the image if it's running, but keeps it waiting to start
+     * again.
+     */
+    private void stopImageLoad() {
+        if ((mImageRequest != null) && mImageRequest.isStarted()) {
+            SquareImageLoader.Request request = mImageRequest.copy();
+            cancelImageLoad();
+            mImageRequest = request;
+        }
+    }
+
+    /**
+     * Shows an image from a background load.
+     * @param request The load
+     * @param bitmap The image
+     */
+    private void showLoadedImage(@NonNull SquareImageLoader.Request request,
+                                 @NonNull Bitmap bitmap) {
+        mIsShowingLoadedImage = true;
+
+        try {
+            setImageBitmap(bitmap);
+        } finally {
+            mIsShowingLoadedImage = false;
+        }
+
+        SquareImageLoader.acquire(bitmap);
+        mLoadedBitmap = bitmap;
+        mLoadedRequest = request;
+    }
+
+    /**
+     * Called before the superclass changes the image.  Unless it's the result of a background
+     * load, that load is no longer wanted.  Either way, the previous result of a background load
+     * is on its way out.
+     * @return The previous result of a background load, to pass to
+     * {@link #releaseAfterFrame(Bitmap)} once the superclass has let go of it, or
+     * <code>null</code> if there isn't one
+     */
+    @Nullable
+    private Bitmap onImageChanging() {
+        if (!mIsShowingLoadedImage) {
+            cancelImageLoad();
+        }
+
+        Bitmap previousBitmap = mLoadedBitmap;
+        mLoadedBitmap = null;
+        mLoadedRequest = null;
+        return previousBitmap;
+    }
+
+    /**
+     * Tells the loader a Bitmap is no longer shown, once the frame being drawn is done with it.
+     * Until then the render thread may still be drawing it, so it mustn't be decoded into.
+     * @param bitmap The Bitmap, or <code>null</code> to do nothing
+     */
+    private void releaseAfterFrame(@Nullable final Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+
+        if (getWindowToken() == null) {
+            // nothing is drawing a view that isn't attached
+            SquareImageLoader.release(bitmap);
+            return;
+        }
+
+        Runnable release = new Runnable() {
+            @Override
+            public void run() {
+                SquareImageLoader.release(bitmap);
+            }
+        };
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postOnAnimation(release);
+        } else {
+            post(release);
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if measure specs fix the size of the SquareImageView whatever its
+     * image is: the controlling dimension (or for {@link DependentDimension#NEITHER}, both) is
+     * exact.
+     */
+    private boolean isSizeFixedBy(int widthMeasureSpec, int heightMeasureSpec) {
+        return isControllingSizeFixed(
+                MeasureSpec.getMode(widthMeasureSpec) == MeasureSpec.EXACTLY,
+                MeasureSpec.getMode(heightMeasureSpec) == MeasureSpec.EXACTLY);
+    }
+
+    /**
+     * Returns <code>true</code> if the controlling dimension (or for
+     * {@link DependentDimension#NEITHER}, both) is fixed, given which dimensions are.
+     */
+    private boolean isControllingSizeFixed(boolean isWidthFixed, boolean isHeightFixed) {
+        switch (mDependentDimension) {
+            case HORIZONTAL:
+                return isHeightFixed;
+
+            case VERTICAL:
+                return isWidthFixed;
+
+            default:
+                return isWidthFixed && isHeightFixed;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if a new image can't change the size or position of the
+     * SquareImageView, so changing it needs no layout.  That's the case once it's been laid out,
+     * as long as nothing else has asked for a layout since, if the new image is the same size as
+     * the old one or the layout parameters give the controlling dimension a size in pixels.  An
+     * exact measure spec isn't enough: a parent that measures twice, such as a TableLayout or a
+     * weighted LinearLayout, works out the exact size from a first pass that did depend on the
+     * image.  Before Lollipop the superclass only works out how to scale a new image during
+     * layout, so a layout is always needed there.
+     */
+    private boolean isImageSizeIrrelevant() {
+        if ((Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) || !isLaidOut() ||
+                isLayoutRequested()) {
+            return false;
+        }
+
+        Drawable drawable = getDrawable();
+
+        if ((drawableWidthOf(drawable) == mPreviousDrawableWidth) &&
+                (drawableHeightOf(drawable) == mPreviousDrawableHeight)) {
+            return true;
+        }
+
+        ViewGroup.LayoutParams params = getLayoutParams();
+        return (params != null) && isControllingSizeFixed(params.width >= 0, params.height >= 0);
+    }
+
+    /**
+     * Returns the intrinsic width of an image for measuring.  No image at all measures
+     * differently from an image with no intrinsic size (-1), so it's
+     * <code>Integer.MIN_VALUE</code>.
+     */
+    private static int drawableWidthOf(@Nullable Drawable drawable) {
+        return (drawable == null) ? Integer.MIN_VALUE : drawable.getIntrinsicWidth();
+    }
+
+    /**
+     * Returns the intrinsic height of an image for measuring, as for
+     * {@link #drawableWidthOf(Drawable)}.
+     */
+    private static int drawableHeightOf(@Nullable Drawable drawable) {
+        return (drawable == null) ? Integer.MIN_VALUE : drawable.getIntrinsicHeight();
     }
 
     /**
@@ -138,6 +612,46 @@ public class SquareImageView extends ImageView {
         }
     }
 
+    /**
+     * One result of {@link #onMeasure(int, int)}, along with everything it depended on that can
+     * change without a layout being requested.
+     */
+    private static final class MeasureCacheEntry {
+        private int mWidthMeasureSpec;
+        private int mHeightMeasureSpec;
+        private int mDrawableWidth;
+        private int mDrawableHeight;
+        private DependentDimension mDependentDimension;
+        private int mMeasuredWidth;
+        private int mMeasuredHeight;
+
+        /**
+         * Fills in the entry.
+         */
+        void set(int widthMeasureSpec, int heightMeasureSpec, int drawableWidth,
+                 int drawableHeight, DependentDimension dependentDimension, int measuredWidth,
+                 int measuredHeight) {
+            mWidthMeasureSpec = widthMeasureSpec;
+            mHeightMeasureSpec = heightMeasureSpec;
+            mDrawableWidth = drawableWidth;
+            mDrawableHeight = drawableHeight;
+            mDependentDimension = dependentDimension;
+            mMeasuredWidth = measuredWidth;
+            mMeasuredHeight = measuredHeight;
+        }
+
+        /**
+         * Returns <code>true</code> if the entry is the result of measuring with these inputs.
+         */
+        boolean matches(int widthMeasureSpec, int heightMeasureSpec, int drawableWidth,
+                        int drawableHeight, DependentDimension dependentDimension) {
+            return (mWidthMeasureSpec == widthMeasureSpec) &&
+                    (mHeightMeasureSpec == heightMeasureSpec) &&
+                    (mDrawableWidth == drawableWidth) && (mDrawableHeight == drawableHeight) &&
+                    (mDependentDimension == dependentDimension);
+        }
+    }
+
     /**
      * Valid values for the dependentDimension attribute.
      */
@@ -0,0 +1,491 @@
+package com.sailbravado.androiduilibrary;
+
+import android.annotation.TargetApi;
+import android.content.Context;
+import android.content.res.TypedArray;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.os.Build;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.AttributeSet;
+import android.view.MotionEvent;
+import android.view.VelocityTracker;
+import android.view.View;
+import android.view.ViewConfiguration;
+import android.widget.OverScroller;
+
+/**
+ * A scrolling grid of color swatches, meant for palettes with far more colors than could each
+ * have a View of their own.  The swatches are drawn straight onto the canvas, and only the rows
+ * that are on screen are drawn.  Colors that aren't fully opaque are drawn over the same
+ * checkerboard {@link com.sailbravado.androiduilibrary.ColorChooserFragment ColorChooserFragment}
+ * uses.  The selected swatch is outlined in white or black, whichever shows up against it.
+ * <p><p>Use the <code>swatchSize</code> and <code>swatchSpacing</code> attributes to set the size
+ * of each swatch and the gap between them.  The number of columns is however many fit in the
+ * width of the view.  Set the colors with {@link #setColors(int[])} and listen for taps with
+ * {@link #setOnSwatchSelectedListener(OnSwatchSelectedListener)}.
+ */
+public class SwatchGridView extends View {
+    /**
+     * Default size of a swatch, in dp
+     */
+    private static final float DEFAULT_SWATCH_SIZE_DP = 32;
+    /**
+     * Default gap between swatches, in dp
+     */
+    private static final float DEFAULT_SWATCH_SPACING_DP = 4;
+    /**
+     * The number of columns to ask for when the width isn't fixed by the layout
+     */
+    private static final int PREFERRED_COLUMN_COUNT = 8;
+    /**
+     * Width of the outline around the selected swatch, in dp
+     */
+    private static final float SELECTION_OUTLINE_WIDTH_DP = 2;
+
+    /**
+     * The colors to show, in AARRGGBB format
+     */
+    @NonNull
+    private int[] mColors = new int[0];
+    /**
+     * For each color, whether it's dark (so its outline should be white)
+     */
+    @NonNull
+    private boolean[] mIsDark = new boolean[0];
+    /**
+     * The index of the selected color, or -1 if none is selected
+     */
+    private int mSelectedIndex = -1;
+    private int mSwatchSize;
+    private int mSwatchSpacing;
+    private int mColumnCount = 1;
+    private int mRowCount = 0;
+    /**
+     * The background color the checkerboard is drawn for
+     */
+    private int mCheckerboardBackgroundColor;
+    @NonNull
+    private final Paint mSwatchPaint = new Paint();
+    @NonNull
+    private final Paint mCheckerboardPaint = new Paint();
+    @NonNull
+    private final Paint mOutlinePaint = new Paint();
+    @Nullable
+    private OnSwatchSelectedListener mListener = null;
+    // scrolling
+    private OverScroller mScroller;
+    @Nullable
+    private VelocityTracker mVelocityTracker = null;
+    private int mTouchSlop;
+    private int mMinimumFlingVelocity;
+    private int mMaximumFlingVelocity;
+    private float mDownY;
+    private float mLastMotionY;
+    private boolean mIsBeingDragged = false;
+
+    /**
+     * Simple constructor to use when creating a SwatchGridView from code.
+     * @see android.view.View#View(android.content.Context)
+     */
+    public SwatchGridView(Context context) {
+        super(context);
+        init(context, null);
+    }
+
+    /**
+     * Constructor called when creating a SwatchGridView from XML.
+     * @see android.view.View#View(android.content.Context, android.util.AttributeSet)
+     */
+    public SwatchGridView(Context context, AttributeSet attrs) {
+        this(context, attrs, 0);
+    }
+
+    /**
+     * Perform inflation from XML and apply a class-specific base style from a theme attribute.
+     * @see android.view.View#View(android.content.Context, android.util.AttributeSet, int)
+     */
+    public SwatchGridView(Context context, AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init(context, attrs);
+    }
+
+    /**
+     * Perform inflation from XML and apply a class-specific base style from a theme attribute or
+     * style resource.
+     * @see android.view.View#View(android.content.Context, android.util.AttributeSet, int, int)
+     */
+    @TargetApi(Build.VERSION_CODES.LOLLIPOP)
+    public SwatchGridView(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
+        super(context, attrs, defStyleAttr, defStyleRes);
+        init(context, attrs);
+    }
+
+    /**
+     * Common setup for all the constructors
+     */
+    private void init(Context context, @Nullable AttributeSet attrs) {
+        float density = getResources().getDisplayMetrics().density;
+        mSwatchSize = (int) (DEFAULT_SWATCH_SIZE_DP * density);
+        mSwatchSpacing = (int) (DEFAULT_SWATCH_SPACING_DP * density);
+
+        if (attrs != null) {
+            TypedArray a = context.getTheme().obtainStyledAttributes(
+                    attrs, R.styleable.SwatchGridView, 0, 0);
+
+            try {
+                mSwatchSize = a.getDimensionPixelSize(R.styleable.SwatchGridView_swatchSize,
+                        mSwatchSize);
+                mSwatchSpacing = a.getDimensionPixelSize(R.styleable.SwatchGridView_swatchSpacing,
+                        mSwatchSpacing);
+            } finally {
+                a.recycle();
+            }
+        }
+
+        mSwatchPaint.setStyle(Paint.Style.FILL);
+        mOutlinePaint.setStyle(Paint.Style.STROKE);
+        mOutlinePaint.setStrokeWidth(SELECTION_OUTLINE_WIDTH_DP * density);
+
+        try {
+            mCheckerboardBackgroundColor = ColorUtils.themeBackgroundColor(context.getTheme());
+        } catch (RuntimeException e) {
+            mCheckerboardBackgroundColor = Color.WHITE;
+        }
+
+        mCheckerboardPaint.setShader(
+                ColorChooserBitmaps.createCheckerboardShader(mCheckerboardBackgroundColor));
+
+        ViewConfiguration configuration = ViewConfiguration.get(context);
+        mScroller = new OverScroller(context);
+        mTouchSlop = configuration.getScaledTouchSlop();
+        mMinimumFlingVelocity = configuration.getScaledMinimumFlingVelocity();
+        mMaximumFlingVelocity = configuration.getScaledMaximumFlingVelocity();
+    }
+
+    /**
+     * Sets the colors to show.  The selection is cleared if the selected index is no longer valid.
+     * @param colors The colors in AARRGGBB format.  The array is copied.
+     */
+    public void setColors(@NonNull int[] colors) {
+        mColors = colors.clone();
+        mIsDark = new boolean[mColors.length];
+        ColorUtils.isDark(mColors, mIsDark);
+
+        if (mSelectedIndex >= mColors.length) {
+            mSelectedIndex = -1;
+        }
+
+        requestLayout();
+        invalidate();
+    }
+
+    /**
+     * Returns a copy of the colors being shown.
+     */
+    @NonNull
+    public int[] getColors() {
+        return mColors.clone();
+    }
+
+    /**
+     * Returns the index of the selected color, or -1 if none is selected.
+     */
+    public int getSelectedIndex() {
+        return mSelectedIndex;
+    }
+
+    /**
+     * Selects a color.  This doesn't call the listener.
+     * @param index The index of the color to select, or -1 to clear the selection
+     */
+    public void setSelectedIndex(int index) {
+        if ((index < -1) || (index >= mColors.length)) {
+            throw new IndexOutOfBoundsException("SwatchGridView.setSelectedIndex(): index " +
+                    index + " is out of range for " + mColors.length + " colors");
+        }
+
+        if (index != mSelectedIndex) {
+            mSelectedIndex = index;
+            invalidate();
+        }
+    }
+
+    /**
+     * Sets the background color the checkerboard behind transparent colors is drawn for.  The
+     * default is the theme background color.
+     * @param backgroundColor The background color
+     */
+    public void setCheckerboardBackgroundColor(int backgroundColor) {
+        if (backgroundColor != mCheckerboardBackgroundColor) {
+            mCheckerboardBackgroundColor = backgroundColor;
+            mCheckerboardPaint.setShader(
+                    ColorChooserBitmaps.createCheckerboardShader(mCheckerboardBackgroundColor));
+            invalidate();
+        }
+    }
+
+    /**
+     * Sets the callback for when the user taps a swatch.
+     * @param listener The listener, or <code>null</code> for none
+     */
+    public void setOnSwatchSelectedListener(@Nullable OnSwatchSelectedListener listener) {
+        mListener = listener;
+    }
+
+    @Override
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+        int pitch = mSwatchSize + mSwatchSpacing;
+        int horizontalPadding = getPaddingLeft() + getPaddingRight();
+        int preferredColumns = Math.max(1, Math.min(mColors.length, PREFERRED_COLUMN_COUNT));
+        int width = resolveSize(horizontalPadding + (preferredColumns * pitch) - mSwatchSpacing,
+                widthMeasureSpec);
+
+        // the rows follow from how many columns fit
+        updateGridMetrics(width);
+        int height = resolveSize(getContentHeight(), heightMeasureSpec);
+        setMeasuredDimension(width, height);
+    }
+
+    @Override
+    protected void onSizeChanged(int w, int h, int oldw, int oldh) {
+        super.onSizeChanged(w, h, oldw, oldh);
+        updateGridMetrics(w);
+        scrollTo(0, getScrollY());
+    }
+
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
+
+        if (mColors.length == 0) {
+            return;
+        }
+
+        // the canvas is already translated by the scroll position, so only the rows between the
+        // top and bottom of the visible area need drawing
+        int pitch = mSwatchSize + mSwatchSpacing;
+        int paddingLeft = getPaddingLeft();
+        int paddingTop = getPaddingTop();
+        int scrollY = getScrollY();
+        int firstRow = Math.max(0, (scrollY - paddingTop) / pitch);
+        int lastRow = Math.min(mRowCount - 1, (scrollY + getHeight() - paddingTop) / pitch);
+
+        for (int row = firstRow; row <= lastRow; row++) {
+            int top = paddingTop + (row * pitch);
+            int index = row * mColumnCount;
+
+            for (int column = 0; (column < mColumnCount) && (index < mColors.length);
+                 column++, index++) {
+                int left = paddingLeft + (column * pitch);
+                int color = mColors[index];
+
+                if ((color >>> 24) != 0xff) {
+                    canvas.drawRect(left, top, left + mSwatchSize, top + mSwatchSize,
+                            mCheckerboardPaint);
+                }
+
+                mSwatchPaint.setColor(color);
+                canvas.drawRect(left, top, left + mSwatchSize, top + mSwatchSize, mSwatchPaint);
+            }
+        }
+
+        if ((mSelectedIndex >= 0) && (mSelectedIndex / mColumnCount >= firstRow) &&
+                (mSelectedIndex / mColumnCount <= lastRow)) {
+            int left = paddingLeft + ((mSelectedIndex % mColumnCount) * pitch);
+            int top = paddingTop + ((mSelectedIndex / mColumnCount) * pitch);
+            float inset = mOutlinePaint.getStrokeWidth() / 2;
+            mOutlinePaint.setColor(mIsDark[mSelectedIndex] ? Color.WHITE : Color.BLACK);
+            canvas.drawRect(left + inset, top + inset, left + mSwatchSize - inset,
+                    top + mSwatchSize - inset, mOutlinePaint);
+        }
+    }
+
+    @Override
+    public boolean onTouchEvent(MotionEvent event) {
+        if (!isEnabled()) {
+            return false;
+        }
+
+        if (mVelocityTracker == null) {
+            mVelocityTracker = VelocityTracker.obtain();
+        }
+
+        mVelocityTracker.addMovement(event);
+
+        switch (event.getAction()) {
+            case MotionEvent.ACTION_DOWN:
+                // a touch during a fling stops it, and doesn't count as a tap
+                mIsBeingDragged = !mScroller.isFinished();
+                mScroller.abortAnimation();
+                mDownY = event.getY();
+                mLastMotionY = mDownY;
+                break;
+
+            case MotionEvent.ACTION_MOVE:
+                float y = event.getY();
+
+                if (!mIsBeingDragged && (Math.abs(y - mDownY) > mTouchSlop)) {
+                    mIsBeingDragged = true;
+
+                    if (getParent() != null) {
+                        getParent().requestDisallowInterceptTouchEvent(true);
+                    }
+                }
+
+                if (mIsBeingDragged) {
+                    scrollTo(0, getScrollY() + (int) (mLastMotionY - y));
+                    mLastMotionY = y;
+                }
+
+                break;
+
+            case MotionEvent.ACTION_UP:
+                if (mIsBeingDragged) {
+                    mVelocityTracker.computeCurrentVelocity(1000, mMaximumFlingVelocity);
+                    int velocity = (int) mVelocityTracker.getYVelocity();
+
+                    if (Math.abs(velocity) > mMinimumFlingVelocity) {
+                        mScroller.fling(0, getScrollY(), 0, -velocity, 0, 0, 0,
+                                getMaxScrollY());
+                        invalidate();
+                    }
+                } else {
+                    selectSwatchAt(event.getX(), event.getY());
+                    performClick();
+                }
+
+                endDrag();
+                break;
+
+            case MotionEvent.ACTION_CANCEL:
+                endDrag();
+                break;
+        }
+
+        return true;
+    }
+
+    @Override
+    public boolean performClick() {
+        return super.performClick();
+    }
+
+    @Override
+    public void computeScroll() {
+        if (mScroller.computeScrollOffset()) {
+            scrollTo(0, mScroller.getCurrY());
+
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+                postInvalidateOnAnimation();
+            } else {
+                invalidate();
+            }
+        }
+    }
+
+    @Override
+    public void scrollTo(int x, int y) {
+        // the grid only scrolls vertically, and never past either end
+        super.scrollTo(0, Math.max(0, Math.min(y, getMaxScrollY())));
+    }
+
+    @Override
+    protected int computeVerticalScrollRange() {
+        return getContentHeight();
+    }
+
+    @Override
+    protected int computeVerticalScrollOffset() {
+        return getScrollY();
+    }
+
+    @Override
+    protected int computeVerticalScrollExtent() {
+        return getHeight();
+    }
+
+    /**
+     * Works out how many columns fit in a given width and how many rows that makes.
+     * @param width The width of the view
+     */
+    private void updateGridMetrics(int width) {
+        int pitch = mSwatchSize + mSwatchSpacing;
+        int availableWidth = width - getPaddingLeft() - getPaddingRight() + mSwatchSpacing;
+        mColumnCount = Math.max(1, availableWidth / pitch);
+        mRowCount = (mColors.length + mColumnCount - 1) / mColumnCount;
+    }
+
+    /**
+     * Returns the height of the whole grid, including padding.
+     */
+    private int getContentHeight() {
+        int rowsHeight = (mRowCount > 0) ?
+                ((mRowCount * (mSwatchSize + mSwatchSpacing)) - mSwatchSpacing) : 0;
+        return getPaddingTop() + rowsHeight + getPaddingBottom();
+    }
+
+    /**
+     * Returns the largest allowed scroll position.
+     */
+    private int getMaxScrollY() {
+        return Math.max(0, getContentHeight() - getHeight());
+    }
+
+    /**
+     * Selects the swatch under a point and tells the listener.  Points in the gaps between
+     * swatches are ignored.
+     * @param x The x coordinate of the point, relative to the view
+     * @param y The y coordinate of the point, relative to the view
+     */
+    private void selectSwatchAt(float x, float y) {
+        int pitch = mSwatchSize + mSwatchSpacing;
+        int contentX = (int) x - getPaddingLeft();
+        int contentY = (int) y + getScrollY() - getPaddingTop();
+
+        if ((contentX < 0) || (contentY < 0) || ((contentX % pitch) >= mSwatchSize) ||
+                ((contentY % pitch) >= mSwatchSize)) {
+            return;
+        }
+
+        int column = contentX / pitch;
+        int index = ((contentY / pitch) * mColumnCount) + column;
+
+        if ((column >= mColumnCount) || (index >= mColors.length)) {
+            return;
+        }
+
+        setSelectedIndex(index);
+
+        if (mListener != null) {
+            mListener.onSwatchSelected(this, index, mColors[index]);
+        }
+    }
+
+    /**
+     * Cleans up after a touch gesture
+     */
+    private void endDrag() {
+        mIsBeingDragged = false;
+
+        if (mVelocityTracker != null) {
+            mVelocityTracker.recycle();
+            mVelocityTracker = null;
+        }
+    }
+
+    /**
+     * Interface for receiving taps on swatches.
+     */
+    public interface OnSwatchSelectedListener {
+        /**
+         * Called when the user taps a swatch.
+         * @param view The SwatchGridView
+         * @param index The index of the color that was tapped
+         * @param color The color that was tapped, in AARRGGBB format
+         */
+        public void onSwatchSelected(SwatchGridView view, int index, int color);
+    }
+}
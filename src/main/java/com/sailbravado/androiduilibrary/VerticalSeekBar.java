@@ -1,19 +1,28 @@
 package com.sailbravado.androiduilibrary;
 
-// TODO: diagnose why the thumb doesn't go to the right position in setProgress().  seems to happen when we setBackground()
+import android.animation.TimeInterpolator;
 import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Rect;
 import android.graphics.drawable.Drawable;
+import android.graphics.drawable.LayerDrawable;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.AttributeSet;
+import android.view.Choreographer;
 import android.view.MotionEvent;
 import android.view.ViewParent;
-import android.view.ViewTreeObserver;
 import android.widget.SeekBar;
 
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Implements a vertically-oriented SeekBar.  Some of this code is courtesy of StackOverflow user
  * Fatal1ty2787 (answer posted at <a
@@ -21,13 +30,215 @@ import android.widget.SeekBar;
  * this</a> link).
  * Created by John Riehl on 3/28/2015.
  */
-public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGlobalLayoutListener {
+public class VerticalSeekBar extends SeekBar {
+    /**
+     * Listener for changes to the high-resolution progress of a VerticalSeekBar (see
+     * {@link #getFraction()})
+     */
+    public interface OnFractionChangedListener {
+        /**
+         * Called when the high-resolution progress changes, whether from the user dragging the
+         * thumb or from code.
+         * @param seekBar The VerticalSeekBar
+         * @param fraction The new progress, from 0 (bottom) to 1 (top)
+         * @param fromUser If <code>true</code> the change came from the user
+         */
+        void onFractionChanged(@NonNull VerticalSeekBar seekBar, float fraction, boolean fromUser);
+    }
+
+    /**
+     * The value of {@link #mPendingProgress} when there's no progress waiting to be applied
+     */
+    private static final int NO_PENDING_PROGRESS = Integer.MIN_VALUE;
+    /**
+     * The value of {@link #mTrackedProgress} when no drag has moved the thumb this frame
+     */
+    private static final int NO_TRACKED_PROGRESS = -1;
+    /**
+     * Posts published progress to the UI thread.  A View only posts to the UI thread from another
+     * thread while it's attached (before Nougat the Runnable is otherwise left on the posting
+     * thread's queue, where it never runs), so progress is posted here instead.
+     */
+    @NonNull
+    private static final Handler sMainHandler = new Handler(Looper.getMainLooper());
+    /**
+     * The default stiffness of the animation spring, in 1/s²
+     */
+    private static final float DEFAULT_SPRING_STIFFNESS = 200;
+    /**
+     * The default damping ratio of the animation spring: critically damped, so it settles as
+     * quickly as it can without overshooting
+     */
+    private static final float DEFAULT_SPRING_DAMPING_RATIO = 1;
+    /**
+     * The length of a frame, in seconds, assumed for the first frame of an animation
+     */
+    private static final float NOMINAL_FRAME_TIME = 1 / 60f;
+    /**
+     * The longest time step of the spring, in seconds, so that a long stall doesn't throw it off
+     */
+    private static final float MAX_SPRING_STEP = 1 / 30f;
+    /**
+     * The spring has settled once it's this close to the target...
+     */
+    private static final float SPRING_SETTLE_DISTANCE = 1 / 10000f;
+    /**
+     * ...and moving slower than this, in fractions per second
+     */
+    private static final float SPRING_SETTLE_VELOCITY = 1 / 1000f;
+
     /**
      * Listener for changes to the VerticalSeekBar.  We include this because it's private in the
      * superclass, not because we're adding any functionality
      */
     @Nullable
     protected OnSeekBarChangeListener mOnSeekBarChangeListener;
+    /**
+     * The thumb.  We include this because getThumb() is only available from Jelly Bean on.  It's
+     * set by the superclass constructor (through setThumb()), so it mustn't have an initializer.
+     */
+    @Nullable
+    private Drawable mThumb;
+    /**
+     * How far the thumb can travel along the track, in pixels, as worked out by the superclass
+     * for the current size.  Only changes when the size, padding, thumb or thumb offset do.
+     */
+    private int mThumbTravel;
+    /**
+     * The high-resolution progress, from 0 to 1.  It's set by the superclass constructor (through
+     * setProgress()), so it mustn't have an initializer.
+     */
+    private float mFraction;
+    /**
+     * Listener for changes to {@link #mFraction}
+     */
+    @Nullable
+    private OnFractionChangedListener mOnFractionChangedListener;
+    /**
+     * The latest progress published by {@link #publishProgress(int)} that hasn't been applied yet,
+     * or {@link #NO_PENDING_PROGRESS}.  Going from {@link #NO_PENDING_PROGRESS} to a value is what
+     * schedules {@link #mApplyPendingProgress}, so it's applied at most once per frame however
+     * often progress is published.
+     */
+    @NonNull
+    private final AtomicInteger mPendingProgress = new AtomicInteger(NO_PENDING_PROGRESS);
+    /**
+     * Arranges on the UI thread for {@link #mApplyPendingProgress} to run at the next frame.
+     * There's only ever one of these, so publishing progress doesn't allocate.
+     */
+    @NonNull
+    private final Runnable mSchedulePendingProgress = new Runnable() {
+        @Override
+        public void run() {
+            AnimationDriver.getInstance().applyAtNextFrame(VerticalSeekBar.this);
+        }
+    };
+    /**
+     * Applies the pending progress on the UI thread
+     */
+    @NonNull
+    private final Runnable mApplyPendingProgress = new Runnable() {
+        @Override
+        public void run() {
+            int progress = mPendingProgress.getAndSet(NO_PENDING_PROGRESS);
+
+            if (progress != NO_PENDING_PROGRESS) {
+                setProgress(progress);
+            }
+        }
+    };
+
+    /**
+     * If <code>true</code>, progress from a drag is applied once per frame instead of once per
+     * touch event
+     */
+    private boolean mIsFramePaced = false;
+    /**
+     * In frame-paced mode, the progress of the latest touch event of the current frame that hasn't
+     * been applied yet, or {@link #NO_TRACKED_PROGRESS}
+     */
+    private int mTrackedProgress = NO_TRACKED_PROGRESS;
+    /**
+     * In frame-paced mode, the high-resolution progress that goes with {@link #mTrackedProgress}
+     */
+    private float mTrackedFraction;
+    /**
+     * In frame-paced mode, applies {@link #mTrackedProgress} once per frame
+     */
+    @NonNull
+    private final Runnable mApplyTrackedProgress = new Runnable() {
+        @Override
+        public void run() {
+            applyTrackedProgress();
+        }
+    };
+
+    /**
+     * If <code>true</code>, the parts of the VerticalSeekBar that don't move with the thumb are
+     * drawn once into {@link #mTrackBitmap} instead of on every frame
+     */
+    private boolean mIsTrackCached = false;
+    /**
+     * The background and the static layer of the progress drawable, rotated and ready to draw, or
+     * <code>null</code> if they aren't cached
+     */
+    @Nullable
+    private Bitmap mTrackBitmap = null;
+    /**
+     * If <code>true</code>, {@link #mTrackBitmap} needs to be drawn again before it's used
+     */
+    private boolean mIsTrackBitmapDirty = true;
+    /**
+     * Whether the view was enabled when {@link #mTrackBitmap} was last drawn
+     */
+    private boolean mIsTrackBitmapEnabled;
+
+    /**
+     * The easing of animations, or <code>null</code> to animate with a spring
+     */
+    @Nullable
+    private TimeInterpolator mAnimationInterpolator = null;
+    /**
+     * The length of eased animations, in milliseconds
+     */
+    private long mAnimationDuration;
+    /**
+     * The stiffness of the animation spring, in 1/s²
+     */
+    private float mSpringStiffness = DEFAULT_SPRING_STIFFNESS;
+    /**
+     * The damping coefficient of the animation spring, in 1/s, worked out from the damping ratio
+     */
+    private float mSpringDamping = 2 * DEFAULT_SPRING_DAMPING_RATIO *
+            (float) Math.sqrt(DEFAULT_SPRING_STIFFNESS);
+    /**
+     * If <code>true</code>, progress is being animated
+     */
+    private boolean mIsAnimating = false;
+    /**
+     * The high-resolution progress the animation started from
+     */
+    private float mAnimationStart;
+    /**
+     * The high-resolution progress the animation is heading to
+     */
+    private float mAnimationTarget;
+    /**
+     * The high-resolution progress of the animation, which may overshoot 0 or 1 with a spring
+     */
+    private float mAnimationPosition;
+    /**
+     * The speed of the spring, in fractions per second
+     */
+    private float mAnimationVelocity;
+    /**
+     * The frame time the animation started at, in nanoseconds
+     */
+    private long mAnimationStartTime;
+    /**
+     * The frame time of the last animation step, in nanoseconds, or 0 before the first
+     */
+    private long mLastFrameTime;
 
     /**
      * Simple constructor to use when creating a VerticalSeekBar from code.
@@ -35,7 +246,6 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
      */
     public VerticalSeekBar(Context context) {
         super(context);
-        getViewTreeObserver().addOnGlobalLayoutListener(this);
     }
 
     /**
@@ -44,7 +254,6 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
      */
     public VerticalSeekBar(Context context, AttributeSet attrs) {
         super(context, attrs);
-        getViewTreeObserver().addOnGlobalLayoutListener(this);
     }
 
     /**
@@ -53,7 +262,6 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
      */
     public VerticalSeekBar(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
-        getViewTreeObserver().addOnGlobalLayoutListener(this);
     }
 
     /**
@@ -64,7 +272,6 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
     @TargetApi(Build.VERSION_CODES.LOLLIPOP)
     public VerticalSeekBar(Context context, AttributeSet attrs, int defStyle, int defStyleRes) {
         super(context, attrs, defStyle, defStyleRes);
-        getViewTreeObserver().addOnGlobalLayoutListener(this);
     }
 
     @Override
@@ -75,14 +282,86 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
         mOnSeekBarChangeListener = l;
     }
 
+    @Override
+    public void setThumb(Drawable thumb) {
+        super.setThumb(thumb);
+        mThumb = thumb;
+        updateTrackGeometry();
+    }
+
+    @Override
+    public void setThumbOffset(int thumbOffset) {
+        super.setThumbOffset(thumbOffset);
+        updateTrackGeometry();
+    }
+
+    @Override
+    public void setPadding(int left, int top, int right, int bottom) {
+        super.setPadding(left, top, right, bottom);
+        updateTrackGeometry();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public void setBackgroundDrawable(Drawable background) {
+        // a background with padding changes the track, and re-resolving the padding makes the
+        // superclass place the thumb along the width instead of the height
+        super.setBackgroundDrawable(background);
+        updateTrackGeometry();
+    }
+
+    @Override
+    public void setProgressDrawable(Drawable d) {
+        super.setProgressDrawable(d);
+        mIsTrackBitmapDirty = true;
+    }
+
+    @Override
+    public void invalidateDrawable(@NonNull Drawable drawable) {
+        // the progress drawable invalidates itself whenever the progress changes, so only the
+        // background can be trusted to mean that the cached track is out of date
+        if (drawable == getBackground()) {
+            mIsTrackBitmapDirty = true;
+        }
+
+        super.invalidateDrawable(drawable);
+    }
+
+    @Override
+    protected void drawableStateChanged() {
+        super.drawableStateChanged();
+
+        // only a drawable that looks different in the new state changes the cached track, and
+        // pressing the thumb shouldn't redraw the track otherwise.  enabling or disabling the
+        // view also changes the alpha of the progress drawable, even one that isn't stateful,
+        // and the superclass does that through invalidateDrawable(), which we ignore for it
+        Drawable background = getBackground();
+        Drawable progressDrawable = getProgressDrawable();
+
+        if (((background != null) && background.isStateful()) ||
+                ((progressDrawable != null) && progressDrawable.isStateful()) ||
+                (isEnabled() != mIsTrackBitmapEnabled)) {
+            mIsTrackBitmapDirty = true;
+        }
+    }
+
+    @Override
+    public void onRtlPropertiesChanged(int layoutDirection) {
+        // the superclass places the thumb along the width here
+        super.onRtlPropertiesChanged(layoutDirection);
+        updateThumbPosition();
+    }
+
     @Override
     protected void onSizeChanged(int w, int h, int oldw, int oldh) {
-        // simply swap the width and height values
+        // simply swap the width and height values.  the superclass lays out the track and the
+        // thumb for the new size
         super.onSizeChanged(h, w, oldh, oldw);
+        updateTrackGeometry();
     }
 
     @Override
-    protected synchronized void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
+    protected void onMeasure(int widthMeasureSpec, int heightMeasureSpec) {
         // simply swap the width and height values
         //noinspection SuspiciousNameCombination
         super.onMeasure(heightMeasureSpec, widthMeasureSpec);
@@ -95,17 +374,15 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
             return false;
         }
 
-        int progress = getMax() - (int) (getMax() * event.getY() / getHeight());
-
-        if (progress < 0) {
-            progress = 0;
-        } else if (progress > getMax()) {
-            progress = getMax();
-        }
+        // the latest sample is the only one that matters, so any history in the event is ignored
+        float y = event.getY();
+        int progress = progressAt(y);
+        float fraction = fractionAt(y);
 
         switch (event.getAction()) {
             case MotionEvent.ACTION_DOWN:
-                setProgress(progress);
+                cancelAnimation();
+                moveTo(progress, fraction, true);
 
                 // claim motion events for the VerticalSeekBar until the user releases the drag
                 setPressed(true);
@@ -123,8 +400,19 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
                 break;
 
             case MotionEvent.ACTION_MOVE:
+                if (mIsFramePaced) {
+                    // keep only the latest value, and apply it when the next frame is drawn
+                    if (mTrackedProgress == NO_TRACKED_PROGRESS) {
+                        postOnNextFrame(mApplyTrackedProgress);
+                    }
+
+                    mTrackedProgress = progress;
+                    mTrackedFraction = fraction;
+                    break;
+                }
+
                 int oldProgress = getProgress();
-                setProgress(progress);
+                moveTo(progress, fraction, true);
 
                 // only invoke the callback if the progress has changed
                 if ((mOnSeekBarChangeListener != null) && (progress != oldProgress)) {
@@ -134,8 +422,10 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
                 break;
 
             case MotionEvent.ACTION_UP:
+                // the final value is always delivered, whatever was pending
+                cancelTrackedProgress();
                 oldProgress = getProgress();
-                setProgress(progress);
+                moveTo(progress, fraction, true);
                 setPressed(false);
 
                 if (mOnSeekBarChangeListener != null) {
@@ -149,6 +439,8 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
                 break;
 
             case MotionEvent.ACTION_CANCEL:
+                // leave the thumb where the user last saw it heading
+                applyTrackedProgress();
                 setPressed(false);
 
                 if (mOnSeekBarChangeListener != null) {
@@ -165,15 +457,236 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
     }
 
     /**
-     * Sets progress for the VerticalSeekBar.
+     * Sets progress for the VerticalSeekBar.  This must be called on the UI thread; use
+     * {@link #publishProgress(int)} from other threads.
      */
     @Override
-    public synchronized void setProgress(int progress) {
+    public void setProgress(int progress) {
+        cancelAnimation();
         super.setProgress(progress);
 
-        // this calls the private superclass method updateThumbAndTrackPos() using the flipped
-        // dimensions to accurately set the position of the thumb
-        onSizeChanged(getWidth(), getHeight(), 0, 0);
+        // the superclass moves the thumb along the width, so move it again along the height.  the
+        // track hasn't changed, so there's no need to lay it out again
+        setFractionInternal(fractionOf(getProgress()), false);
+    }
+
+    @Override
+    public void setMax(int max) {
+        super.setMax(max);
+        setFractionInternal(fractionOf(getProgress()), false);
+    }
+
+    /**
+     * Sets the high-resolution progress.  The progress is set to the nearest whole step of
+     * {@link #getMax()}, but the thumb goes exactly where the fraction puts it.
+     * @param fraction The new progress, from 0 (bottom) to 1 (top)
+     */
+    public void setFraction(float fraction) {
+        // written so that NaN ends up as 0
+        fraction = (fraction > 0) ? Math.min(fraction, 1) : 0;
+        cancelAnimation();
+        moveTo(Math.round(fraction * getMax()), fraction, false);
+    }
+
+    /**
+     * Gets the high-resolution progress.  While the user drags the thumb this follows the touch
+     * to a fraction of a pixel, however small {@link #getMax()} is; set from code, it's the
+     * progress divided by {@link #getMax()}.
+     * @return The progress, from 0 (bottom) to 1 (top)
+     */
+    public float getFraction() {
+        return mFraction;
+    }
+
+    /**
+     * Sets a listener for changes to the high-resolution progress.  It's called alongside the
+     * {@link OnSeekBarChangeListener}, with no allocation, at the same points.
+     * @param l The listener, or <code>null</code> for none
+     */
+    public void setOnFractionChangedListener(@Nullable OnFractionChangedListener l) {
+        mOnFractionChangedListener = l;
+    }
+
+    /**
+     * Publishes progress from any thread, whether or not the VerticalSeekBar is attached.  Only
+     * the latest value is kept, and it's applied with {@link #setProgress(int)} on the UI thread
+     * at the next frame, so a producer such as a meter or a sensor can publish as often as it
+     * likes without taking a lock or allocating.  The listener is called as for any other
+     * programmatic change, with <code>fromUser</code> set to <code>false</code>.
+     * @param progress The new progress
+     */
+    public void publishProgress(int progress) {
+        // setProgress() would clamp a negative value to 0 anyway, and this keeps it clear of
+        // NO_PENDING_PROGRESS
+        if (mPendingProgress.getAndSet(Math.max(progress, 0)) == NO_PENDING_PROGRESS) {
+            sMainHandler.post(mSchedulePendingProgress);
+        }
+    }
+
+    /**
+     * Sets whether progress from dragging the thumb is frame-paced.  When it is, all the touch
+     * events that arrive within a frame are folded into a single call to
+     * {@link #setProgress(int)} and a single call to the listener's
+     * {@link OnSeekBarChangeListener#onProgressChanged(SeekBar, int, boolean) onProgressChanged()},
+     * made when the next frame is drawn.  The value the drag ends at is always delivered straight
+     * away.  This suits listeners that do expensive work, since they're never called more often
+     * than the screen can show the result.  It's off by default.
+     * @param isFramePaced If <code>true</code> progress from dragging is frame-paced
+     */
+    public void setFramePaced(boolean isFramePaced) {
+        if (!isFramePaced) {
+            applyTrackedProgress();
+        }
+
+        mIsFramePaced = isFramePaced;
+    }
+
+    /**
+     * @return <code>true</code> if progress from dragging the thumb is frame-paced
+     * @see #setFramePaced(boolean)
+     */
+    public boolean isFramePaced() {
+        return mIsFramePaced;
+    }
+
+    /**
+     * Animates the progress to a new value.  See
+     * {@link #animateToFraction(float)}.
+     * @param progress The progress to animate to
+     */
+    public void animateToProgress(int progress) {
+        animateToFraction(fractionOf(Math.max(0, Math.min(progress, getMax()))));
+    }
+
+    /**
+     * Animates the high-resolution progress to a new value, with a spring unless
+     * {@link #setAnimationEasing(TimeInterpolator, long)} has been called.  Calling this again
+     * before the animation finishes retargets it: a spring keeps its speed, and an eased
+     * animation starts again from where it is.  Every animating VerticalSeekBar is stepped by a
+     * single callback on each frame, and the steps don't allocate, so it's fine to animate many
+     * at once (a wall of level meters, say).  Setting the progress any other way, or the user
+     * touching the VerticalSeekBar, cancels the animation.  This must be called on the UI thread.
+     * @param fraction The high-resolution progress to animate to, from 0 (bottom) to 1 (top)
+     */
+    public void animateToFraction(float fraction) {
+        // written so that NaN ends up as 0
+        fraction = (fraction > 0) ? Math.min(fraction, 1) : 0;
+
+        if (!mIsAnimating) {
+            mIsAnimating = true;
+            mAnimationPosition = mFraction;
+            mAnimationVelocity = 0;
+            AnimationDriver.getInstance().add(this);
+        }
+
+        mAnimationStart = mAnimationPosition;
+        mAnimationTarget = fraction;
+        mLastFrameTime = 0;
+    }
+
+    /**
+     * Stops animating the progress, leaving it wherever the animation had got to.
+     */
+    public void cancelAnimation() {
+        if (mIsAnimating) {
+            mIsAnimating = false;
+            AnimationDriver.getInstance().remove(this);
+        }
+    }
+
+    /**
+     * @return <code>true</code> if the progress is being animated
+     */
+    public boolean isAnimating() {
+        return mIsAnimating;
+    }
+
+    /**
+     * Makes animations follow a damped spring.  This is the default, with a stiffness of 200 and
+     * a damping ratio of 1.  A spring suits targets that change all the time, such as a level
+     * meter's, since it carries its speed over from one target to the next.
+     * @param stiffness The stiffness of the spring, in 1/s²; higher is faster
+     * @param dampingRatio The damping ratio; 1 settles fastest without overshooting, less
+     *                     overshoots and more is sluggish
+     */
+    public void setAnimationSpring(float stiffness, float dampingRatio) {
+        if (!(stiffness > 0) || !(dampingRatio > 0)) {
+            throw new IllegalArgumentException("VerticalSeekBar.setAnimationSpring(): the " +
+                    "stiffness and damping ratio must be positive");
+        }
+
+        mAnimationInterpolator = null;
+        mSpringStiffness = stiffness;
+        mSpringDamping = 2 * dampingRatio * (float) Math.sqrt(stiffness);
+    }
+
+    /**
+     * Makes animations run for a fixed time with an easing curve instead of following a spring.
+     * @param interpolator The easing curve
+     * @param duration The length of each animation, in milliseconds
+     */
+    public void setAnimationEasing(@NonNull TimeInterpolator interpolator, long duration) {
+        if (duration < 0) {
+            throw new IllegalArgumentException("VerticalSeekBar.setAnimationEasing(): the " +
+                    "duration can't be negative");
+        }
+
+        mAnimationInterpolator = interpolator;
+        mAnimationDuration = duration;
+    }
+
+    /**
+     * Sets whether the track is cached.  When it is, the background and the background layer of
+     * the progress drawable are drawn once, already rotated, into a Bitmap, and each frame just
+     * copies the Bitmap and draws the progress and the thumb over it.  This is only worthwhile
+     * when the background is expensive to draw, such as several layers or a shape with a shader,
+     * and stays the same while the thumb moves: a background that's already a single Bitmap
+     * costs as much to draw as the cache, and every change to the background draws the whole
+     * track again on the UI thread.  The whole view is still redrawn when the thumb moves, as the
+     * superclass invalidates all of it whenever the progress changes.  It's off by default.
+     * @param isTrackCached If <code>true</code> the track is cached
+     */
+    public void setTrackCached(boolean isTrackCached) {
+        if (isTrackCached == mIsTrackCached) {
+            return;
+        }
+
+        mIsTrackCached = isTrackCached;
+        mTrackBitmap = null;
+        mIsTrackBitmapDirty = true;
+        invalidate();
+    }
+
+    /**
+     * @return <code>true</code> if the track is cached
+     * @see #setTrackCached(boolean)
+     */
+    public boolean isTrackCached() {
+        return mIsTrackCached;
+    }
+
+    @Override
+    public void draw(@NonNull Canvas canvas) {
+        Drawable thumb = mThumb;
+
+        if (!mIsTrackCached || (getWidth() == 0) || (getHeight() == 0)) {
+            super.draw(canvas);
+            return;
+        }
+
+        // this replaces the whole of the superclass's drawing: the cached track stands in for
+        // the background, and the rest is what onDraw() would draw, leaving out the static layer
+        canvas.drawBitmap(getTrackBitmap(), 0, 0, null);
+        int saveCount = canvas.save();
+        rotateForTrack(canvas);
+        drawProgressLayers(canvas, false);
+
+        if (thumb != null) {
+            canvas.translate(-getThumbOffset(), 0);
+            thumb.draw(canvas);
+        }
+
+        canvas.restoreToCount(saveCount);
     }
 
     @Override
@@ -186,27 +699,416 @@ public class VerticalSeekBar extends SeekBar implements ViewTreeObserver.OnGloba
     }
 
     @Override
-    public void onGlobalLayout() {
-        setProgress(getProgress());
-    }
-
-//    @Override
-//    public void setBackgroundColor(int color) {
-//        super.setBackgroundColor(color);
-//    }
-//
-//    @Override
-//    public void setBackgroundResource(int resid) {
-//        super.setBackgroundResource(resid);
-//    }
-//
-//    @Override
-//    public void setBackground(Drawable background) {
-//        super.setBackground(background);
-//    }
-//
-//    @Override
-//    public void setBackgroundDrawable(Drawable background) {
-//        super.setBackgroundDrawable(background);
-//    }
+    protected void onAttachedToWindow() {
+        // the layout direction (and with it the padding) is resolved again on attaching, and the
+        // superclass may have placed the thumb while we were detached
+        super.onAttachedToWindow();
+        updateThumbPosition();
+
+        // show the latest published progress right away rather than a frame late
+        mApplyPendingProgress.run();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        // there's nobody to watch the animation, so skip to its end
+        if (mIsAnimating) {
+            cancelAnimation();
+            moveTo(Math.round(mAnimationTarget * getMax()), mAnimationTarget, false);
+        }
+
+        cancelTrackedProgress();
+        super.onDetachedFromWindow();
+    }
+
+    /**
+     * Converts a Y coordinate within the VerticalSeekBar into progress.
+     */
+    private int progressAt(float y) {
+        int max = getMax();
+        int progress = max - (int) (max * y / getHeight());
+
+        if (progress < 0) {
+            progress = 0;
+        } else if (progress > max) {
+            progress = max;
+        }
+
+        return progress;
+    }
+
+    /**
+     * Converts a Y coordinate within the VerticalSeekBar into high-resolution progress.
+     */
+    private float fractionAt(float y) {
+        float fraction = 1 - (y / getHeight());
+        return (fraction > 0) ? Math.min(fraction, 1) : 0;
+    }
+
+    /**
+     * Converts progress into high-resolution progress.
+     */
+    private float fractionOf(int progress) {
+        int max = getMax();
+        return (max > 0) ? ((float) progress / max) : 0;
+    }
+
+    /**
+     * Sets both the progress and the high-resolution progress.  The superclass's setProgress() is
+     * called directly, since ours would set the high-resolution progress back to a whole step.
+     */
+    private void moveTo(int progress, float fraction, boolean fromUser) {
+        super.setProgress(progress);
+        setFractionInternal(fraction, fromUser);
+    }
+
+    /**
+     * Sets the high-resolution progress, moves the thumb to it, and calls the listener if it
+     * changed.
+     */
+    private void setFractionInternal(float fraction, boolean fromUser) {
+        boolean isChanged = fraction != mFraction;
+        mFraction = fraction;
+        updateThumbPosition();
+
+        if (isChanged && (mOnFractionChangedListener != null)) {
+            mOnFractionChangedListener.onFractionChanged(this, fraction, fromUser);
+        }
+    }
+
+    /**
+     * In frame-paced mode, applies the progress from the latest touch event, and calls the
+     * listener if it changed.
+     */
+    private void applyTrackedProgress() {
+        int progress = mTrackedProgress;
+        cancelTrackedProgress();
+
+        if (progress == NO_TRACKED_PROGRESS) {
+            return;
+        }
+
+        int oldProgress = getProgress();
+        moveTo(progress, mTrackedFraction, true);
+
+        if ((mOnSeekBarChangeListener != null) && (progress != oldProgress)) {
+            mOnSeekBarChangeListener.onProgressChanged(this, progress, true);
+        }
+    }
+
+    /**
+     * Forgets any progress waiting to be applied at the next frame.
+     */
+    private void cancelTrackedProgress() {
+        if (mTrackedProgress != NO_TRACKED_PROGRESS) {
+            removeCallbacks(mApplyTrackedProgress);
+            mTrackedProgress = NO_TRACKED_PROGRESS;
+        }
+    }
+
+    /**
+     * Runs a Runnable on the UI thread when the next frame is drawn, or as soon as possible before
+     * Jelly Bean.
+     */
+    private void postOnNextFrame(@NonNull Runnable runnable) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+            postOnAnimation(runnable);
+        } else {
+            post(runnable);
+        }
+    }
+
+    /**
+     * Takes one step of the animation.  Called by {@link AnimationDriver} once per frame.
+     * @param frameTime The time of the frame, in nanoseconds
+     */
+    private void stepAnimation(long frameTime) {
+        if (!mIsAnimating) {
+            return;
+        }
+
+        boolean isFirstFrame = mLastFrameTime == 0;
+        float timeStep = isFirstFrame ? NOMINAL_FRAME_TIME :
+                Math.min((frameTime - mLastFrameTime) / 1e9f, MAX_SPRING_STEP);
+        mLastFrameTime = frameTime;
+        TimeInterpolator interpolator = mAnimationInterpolator;
+        boolean isFinished;
+
+        if (interpolator != null) {
+            // count the first frame as a whole frame in, so that it already moves
+            if (isFirstFrame) {
+                mAnimationStartTime = frameTime - (long) (NOMINAL_FRAME_TIME * 1e9f);
+            }
+
+            float time = (mAnimationDuration > 0) ?
+                    ((frameTime - mAnimationStartTime) / (mAnimationDuration * 1e6f)) : 1;
+            isFinished = time >= 1;
+            mAnimationPosition = isFinished ? mAnimationTarget : mAnimationStart +
+                    ((mAnimationTarget - mAnimationStart) * interpolator.getInterpolation(time));
+            mAnimationVelocity = 0;
+        } else {
+            // semi-implicit Euler, which stays stable at any sensible stiffness and frame rate
+            float acceleration = (-mSpringStiffness * (mAnimationPosition - mAnimationTarget)) -
+                    (mSpringDamping * mAnimationVelocity);
+            mAnimationVelocity += acceleration * timeStep;
+            mAnimationPosition += mAnimationVelocity * timeStep;
+            isFinished = (Math.abs(mAnimationPosition - mAnimationTarget) <
+                    SPRING_SETTLE_DISTANCE) && (Math.abs(mAnimationVelocity) <
+                    SPRING_SETTLE_VELOCITY);
+
+            if (isFinished) {
+                mAnimationPosition = mAnimationTarget;
+            }
+        }
+
+        if (isFinished) {
+            cancelAnimation();
+        }
+
+        float fraction = (mAnimationPosition > 0) ? Math.min(mAnimationPosition, 1) : 0;
+        moveTo(Math.round(fraction * getMax()), fraction, false);
+    }
+
+    /**
+     * Gets the cached track, drawing it first if it's out of date.
+     */
+    @NonNull
+    private Bitmap getTrackBitmap() {
+        int width = getWidth();
+        int height = getHeight();
+        Bitmap trackBitmap = mTrackBitmap;
+
+        if ((trackBitmap == null) || (trackBitmap.getWidth() != width) ||
+                (trackBitmap.getHeight() != height)) {
+            // the old Bitmap may still be in a display list, so leave it for the garbage collector
+            trackBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mTrackBitmap = trackBitmap;
+            mIsTrackBitmapDirty = true;
+        }
+
+        if (mIsTrackBitmapDirty) {
+            trackBitmap.eraseColor(Color.TRANSPARENT);
+            Canvas canvas = new Canvas(trackBitmap);
+            Drawable background = getBackground();
+
+            if (background != null) {
+                background.setBounds(0, 0, width, height);
+                background.draw(canvas);
+            }
+
+            rotateForTrack(canvas);
+            drawProgressLayers(canvas, true);
+            mIsTrackBitmapDirty = false;
+            mIsTrackBitmapEnabled = isEnabled();
+        }
+
+        return trackBitmap;
+    }
+
+    /**
+     * Rotates and translates a canvas the way {@link #onDraw(Canvas)} and then the superclass do
+     * before drawing the progress drawable.
+     */
+    private void rotateForTrack(@NonNull Canvas canvas) {
+        canvas.rotate(-90);
+        canvas.translate(getPaddingLeft() - getHeight(), getPaddingTop());
+    }
+
+    /**
+     * Draws either the static background layer of the progress drawable or the rest of it.  A
+     * progress drawable that isn't a LayerDrawable has no static part.
+     * @param canvas The canvas, already rotated by {@link #rotateForTrack(Canvas)}
+     * @param isStatic If <code>true</code> draw the static layer, otherwise the rest
+     */
+    private void drawProgressLayers(@NonNull Canvas canvas, boolean isStatic) {
+        Drawable progressDrawable = getProgressDrawable();
+
+        if (progressDrawable instanceof LayerDrawable) {
+            LayerDrawable layers = (LayerDrawable) progressDrawable;
+
+            for (int i = 0; i < layers.getNumberOfLayers(); i++) {
+                if ((layers.getId(i) == android.R.id.background) == isStatic) {
+                    layers.getDrawable(i).draw(canvas);
+                }
+            }
+        } else if ((progressDrawable != null) && !isStatic) {
+            progressDrawable.draw(canvas);
+        }
+    }
+
+    /**
+     * Works out how far the thumb can travel for the current size, then moves the thumb.  This is
+     * the same calculation the superclass makes, along the height instead of the width.
+     */
+    private void updateTrackGeometry() {
+        int thumbWidth = (mThumb == null) ? 0 : mThumb.getIntrinsicWidth();
+        mThumbTravel = Math.max(0, getHeight() - getPaddingLeft() - getPaddingRight() - thumbWidth +
+                (2 * getThumbOffset()));
+        mIsTrackBitmapDirty = true;
+        updateThumbPosition();
+    }
+
+    /**
+     * Moves the thumb to the current progress.  Only the thumb's position along the track
+     * changes; the superclass has already set its position across the track.
+     */
+    private void updateThumbPosition() {
+        Drawable thumb = mThumb;
+
+        if ((thumb == null) || (getHeight() == 0)) {
+            return;
+        }
+
+        int thumbPosition = (int) ((mFraction * mThumbTravel) + 0.5f);
+        Rect bounds = thumb.getBounds();
+
+        if (bounds.left == thumbPosition) {
+            return;
+        }
+
+        thumb.setBounds(thumbPosition, bounds.top, thumbPosition + thumb.getIntrinsicWidth(),
+                bounds.bottom);
+        invalidate();
+    }
+
+    /**
+     * Steps the animations of all the animating VerticalSeekBars, and applies the progress
+     * published to any of them, from one callback per frame.  This version posts itself with a
+     * delay of a frame, for versions before Jelly Bean; see {@link ChoreographerAnimationDriver}
+     * for the others.  Only used on the UI thread.
+     */
+    private static class AnimationDriver implements Runnable {
+        /**
+         * The delay between frames, in milliseconds, when there's no Choreographer
+         */
+        private static final long FRAME_DELAY = 16;
+
+        /**
+         * The one and only AnimationDriver
+         */
+        @Nullable
+        private static AnimationDriver sInstance = null;
+
+        /**
+         * The animating VerticalSeekBars
+         */
+        @NonNull
+        private final ArrayList<VerticalSeekBar> mSeekBars = new ArrayList<>();
+        /**
+         * The VerticalSeekBars with published progress to apply at the next frame
+         */
+        @NonNull
+        private final ArrayList<VerticalSeekBar> mPublishingSeekBars = new ArrayList<>();
+        /**
+         * The Handler used to post frames when there's no Choreographer
+         */
+        @Nullable
+        private Handler mHandler = null;
+        /**
+         * If <code>true</code>, the next frame has been posted
+         */
+        private boolean mIsScheduled = false;
+
+        /**
+         * @return The one and only AnimationDriver
+         */
+        @NonNull
+        static AnimationDriver getInstance() {
+            if (sInstance == null) {
+                sInstance = (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) ?
+                        new ChoreographerAnimationDriver() : new AnimationDriver();
+            }
+
+            return sInstance;
+        }
+
+        /**
+         * Starts stepping a VerticalSeekBar's animation.
+         */
+        void add(@NonNull VerticalSeekBar seekBar) {
+            mSeekBars.add(seekBar);
+
+            if (!mIsScheduled) {
+                mIsScheduled = true;
+                postFrame();
+            }
+        }
+
+        /**
+         * Stops stepping a VerticalSeekBar's animation.
+         */
+        void remove(@NonNull VerticalSeekBar seekBar) {
+            mSeekBars.remove(seekBar);
+        }
+
+        /**
+         * Applies a VerticalSeekBar's published progress at the next frame.
+         */
+        void applyAtNextFrame(@NonNull VerticalSeekBar seekBar) {
+            mPublishingSeekBars.add(seekBar);
+
+            if (!mIsScheduled) {
+                mIsScheduled = true;
+                postFrame();
+            }
+        }
+
+        /**
+         * Arranges for {@link #doFrame(long)} to be called at the next frame.
+         */
+        void postFrame() {
+            if (mHandler == null) {
+                mHandler = new Handler(Looper.getMainLooper());
+            }
+
+            mHandler.postDelayed(this, FRAME_DELAY);
+        }
+
+        @Override
+        public void run() {
+            doFrame(System.nanoTime());
+        }
+
+        /**
+         * Applies the published progress, then steps every animation.
+         * @param frameTimeNanos The time of the frame, in nanoseconds
+         */
+        public void doFrame(long frameTimeNanos) {
+            mIsScheduled = false;
+
+            // progress published by a listener comes back through sMainHandler, so nothing is
+            // added to the list while it's gone through
+            for (int i = 0; i < mPublishingSeekBars.size(); i++) {
+                mPublishingSeekBars.get(i).mApplyPendingProgress.run();
+            }
+
+            mPublishingSeekBars.clear();
+
+            // go backwards, since finished animations take themselves out of the list.  a step
+            // can end up running twice if a listener cancels another animation, which is harmless
+            for (int i = mSeekBars.size() - 1; i >= 0; i--) {
+                if (i < mSeekBars.size()) {
+                    mSeekBars.get(i).stepAnimation(frameTimeNanos);
+                }
+            }
+
+            if (!mSeekBars.isEmpty() && !mIsScheduled) {
+                mIsScheduled = true;
+                postFrame();
+            }
+        }
+    }
+
+    /**
+     * An {@link AnimationDriver} that steps in time with the display through the Choreographer.
+     * It's a separate class so that older versions never load the Choreographer.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private static final class ChoreographerAnimationDriver extends AnimationDriver
+            implements Choreographer.FrameCallback {
+        @Override
+        void postFrame() {
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
 }
\ No newline at end of file
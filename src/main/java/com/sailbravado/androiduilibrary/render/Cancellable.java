@@ -0,0 +1,12 @@
+package com.sailbravado.androiduilibrary.render;
+
+/**
+ * Something that can be asked whether the work it stands for is still wanted.  The renderers in
+ * {@link PixelRenderer} check it as they go and stop early once it returns <code>true</code>.
+ */
+public interface Cancellable {
+    /**
+     * @return <code>true</code> if the work should stop
+     */
+    boolean isCancelled();
+}
@@ -0,0 +1,246 @@
+package com.sailbravado.androiduilibrary.render;
+
+import java.util.Arrays;
+
+/**
+ * Picks a small palette of representative colors from an image by median cut.  The image is first
+ * boiled down to a histogram of {@link #HISTOGRAM_SIZE} bins (5 bits each of red, green and blue)
+ * with {@link #addToHistogram(int[], int, int, int, int[])}; histograms of separate parts of the
+ * image can be built independently, on separate threads if need be, and then added together with
+ * {@link #mergeHistogram(int[], int[])}.  {@link #medianCut(int[], int)} then works on the
+ * histogram alone, so its cost doesn't depend on the size of the image.
+ */
+public final class PaletteQuantizer {
+    /**
+     * The number of bins in a histogram
+     */
+    public static final int HISTOGRAM_SIZE = 1 << 15;
+    /**
+     * Pixels less opaque than this are left out of the histogram
+     */
+    private static final int MIN_ALPHA = 0x80;
+
+    /**
+     * Static class...don't instantiate
+     */
+    private PaletteQuantizer() {
+    }
+
+    /**
+     * Adds pixels to a histogram.
+     * @param pixels The pixels in AARRGGBB format
+     * @param offset The index of the first pixel to add
+     * @param count The number of pixels after the first one to consider
+     * @param step 1 to add every pixel, or more to add every <code>step</code>th pixel
+     * @param histogram The histogram, {@link #HISTOGRAM_SIZE} long
+     */
+    public static void addToHistogram(int[] pixels, int offset, int count, int step,
+                                      int[] histogram) {
+        int end = offset + count;
+
+        for (int i = offset; i < end; i += step) {
+            int color = pixels[i];
+
+            if ((color >>> 24) >= MIN_ALPHA) {
+                histogram[binOf(color)]++;
+            }
+        }
+    }
+
+    /**
+     * Adds one histogram to another.
+     * @param histogram The histogram to add
+     * @param total The histogram to add it to
+     */
+    public static void mergeHistogram(int[] histogram, int[] total) {
+        for (int bin = 0; bin < HISTOGRAM_SIZE; bin++) {
+            total[bin] += histogram[bin];
+        }
+    }
+
+    /**
+     * Finds up to a given number of colors that together represent a histogram.  The colors of the
+     * histogram are split in two along their widest channel, at the median, then the most populous
+     * part is split again, and so on; each part contributes its average color.
+     * @param histogram The histogram, {@link #HISTOGRAM_SIZE} long
+     * @param maxColors The most colors to return
+     * @return The colors in AARRGGBB format (all fully opaque), most common first.  There are fewer
+     * than <code>maxColors</code> if the histogram has fewer distinct colors.
+     * @throws java.lang.IllegalArgumentException if <code>maxColors</code> isn't positive
+     */
+    public static int[] medianCut(int[] histogram, int maxColors) {
+        if (maxColors <= 0) {
+            throw new IllegalArgumentException("PaletteQuantizer.medianCut(): maxColors is " +
+                    maxColors + " but must be positive");
+        }
+
+        // gather the occupied bins
+        int binCount = 0;
+
+        for (int bin = 0; bin < HISTOGRAM_SIZE; bin++) {
+            if (histogram[bin] != 0) {
+                binCount++;
+            }
+        }
+
+        int[] bins = new int[binCount];
+
+        for (int bin = 0, i = 0; bin < HISTOGRAM_SIZE; bin++) {
+            if (histogram[bin] != 0) {
+                bins[i++] = bin;
+            }
+        }
+
+        // each box is a range of the bins array
+        int boxCount = (binCount == 0) ? 0 : 1;
+        int[] boxStarts = new int[maxColors];
+        int[] boxEnds = new int[maxColors];
+        long[] boxPopulations = new long[maxColors];
+        boxEnds[0] = binCount;
+        boxPopulations[0] = populationOf(histogram, bins, 0, binCount);
+
+        while (boxCount < maxColors) {
+            // split the most populous box that has more than one color in it
+            int box = -1;
+
+            for (int i = 0; i < boxCount; i++) {
+                if ((boxEnds[i] - boxStarts[i] > 1) &&
+                        ((box < 0) || (boxPopulations[i] > boxPopulations[box]))) {
+                    box = i;
+                }
+            }
+
+            if (box < 0) {
+                break;
+            }
+
+            int split = splitBox(histogram, bins, boxStarts[box], boxEnds[box]);
+            boxStarts[boxCount] = split;
+            boxEnds[boxCount] = boxEnds[box];
+            boxPopulations[boxCount] = populationOf(histogram, bins, split, boxEnds[box]);
+            boxEnds[box] = split;
+            boxPopulations[box] -= boxPopulations[boxCount];
+            boxCount++;
+        }
+
+        // most common first: sort by population, keeping the box index in the low bits
+        long[] order = new long[boxCount];
+
+        for (int i = 0; i < boxCount; i++) {
+            order[i] = (-boxPopulations[i] << 16) | i;
+        }
+
+        Arrays.sort(order);
+        int[] colors = new int[boxCount];
+
+        for (int i = 0; i < boxCount; i++) {
+            int box = (int) (order[i] & 0xffff);
+            colors[i] = averageOf(histogram, bins, boxStarts[box], boxEnds[box]);
+        }
+
+        return colors;
+    }
+
+    /**
+     * Sorts a box along its widest channel and finds where to split it.
+     * @return The index of the first bin of the second half; always strictly between
+     * <code>start</code> and <code>end</code>
+     */
+    private static int splitBox(int[] histogram, int[] bins, int start, int end) {
+        // find the widest channel; shifts of 10, 5 and 0 pick out red, green and blue
+        int widestShift = 0;
+        int widestRange = -1;
+
+        for (int shift = 0; shift <= 10; shift += 5) {
+            int min = 31;
+            int max = 0;
+
+            for (int i = start; i < end; i++) {
+                int channel = (bins[i] >> shift) & 0x1f;
+                min = Math.min(min, channel);
+                max = Math.max(max, channel);
+            }
+
+            if (max - min > widestRange) {
+                widestRange = max - min;
+                widestShift = shift;
+            }
+        }
+
+        // sort the bins by that channel by putting it on top of the bin number
+        for (int i = start; i < end; i++) {
+            bins[i] |= ((bins[i] >> widestShift) & 0x1f) << 15;
+        }
+
+        Arrays.sort(bins, start, end);
+
+        for (int i = start; i < end; i++) {
+            bins[i] &= HISTOGRAM_SIZE - 1;
+        }
+
+        // split at the median pixel
+        long half = populationOf(histogram, bins, start, end) / 2;
+        long population = 0;
+        int split = start + 1;
+
+        for (int i = start; i < end - 1; i++) {
+            population += histogram[bins[i]];
+
+            if (population >= half) {
+                split = i + 1;
+                break;
+            }
+        }
+
+        return split;
+    }
+
+    /**
+     * Adds up the pixels in a range of bins.
+     */
+    private static long populationOf(int[] histogram, int[] bins, int start, int end) {
+        long population = 0;
+
+        for (int i = start; i < end; i++) {
+            population += histogram[bins[i]];
+        }
+
+        return population;
+    }
+
+    /**
+     * Finds the average color of a range of bins, weighted by their populations.
+     */
+    private static int averageOf(int[] histogram, int[] bins, int start, int end) {
+        long red = 0;
+        long green = 0;
+        long blue = 0;
+        long population = 0;
+
+        for (int i = start; i < end; i++) {
+            int bin = bins[i];
+            long count = histogram[bin];
+            red += expand((bin >> 10) & 0x1f) * count;
+            green += expand((bin >> 5) & 0x1f) * count;
+            blue += expand(bin & 0x1f) * count;
+            population += count;
+        }
+
+        return 0xff000000 | (int) ((red / population) << 16) | (int) ((green / population) << 8) |
+                (int) (blue / population);
+    }
+
+    /**
+     * Turns a 5-bit channel value back into 8 bits, so that 0 and 31 become 0 and 255.
+     */
+    private static int expand(int channel) {
+        return (channel << 3) | (channel >> 2);
+    }
+
+    /**
+     * Finds the histogram bin of a color.
+     */
+    private static int binOf(int color) {
+        return ((color >> 9) & 0x7c00) | ((color >> 6) & 0x03e0) | ((color >> 3) & 0x001f);
+    }
+}
@@ -0,0 +1,363 @@
+package com.sailbravado.androiduilibrary.render;
+
+/**
+ * The pixel logic behind the color chooser, written against plain <code>int[]</code> buffers so
+ * that it runs anywhere Java does (unit tests, benchmarks, servers) and not just on Android.
+ * <p><p>All buffers hold one non-premultiplied AARRGGBB color per pixel in row-major order with no
+ * padding between rows, which is the format <code>android.graphics.Bitmap.setPixels()</code> and
+ * <code>getPixels()</code> use with a stride equal to the width.  Rectangles are given as
+ * <code>left</code>/<code>top</code> (inclusive) and <code>right</code>/<code>bottom</code>
+ * (exclusive) and are clipped to the buffer.  Methods that take a {@link Cancellable} return
+ * <code>false</code> if they stopped early because it was cancelled; it may be <code>null</code>.
+ */
+public final class PixelRenderer {
+    /**
+     * Static class...don't instantiate
+     */
+    private PixelRenderer() {
+    }
+
+    /**
+     * Converts a hue, saturation and value to a color, the same way
+     * <code>android.graphics.Color.HSVToColor()</code> does.
+     * @param alpha The alpha of the color, 0 to 255
+     * @param hue The hue, 0 to 360 (values outside that range are treated as 0)
+     * @param saturation The saturation, 0 to 1
+     * @param value The value, 0 to 1
+     * @return The color in AARRGGBB format
+     */
+    public static int hsvToColor(int alpha, float hue, float saturation, float value) {
+        float s = Math.max(0, Math.min(1, saturation));
+        float v = Math.max(0, Math.min(1, value));
+        int v8 = Math.round(v * 255);
+
+        if (s == 0) {
+            return argb(alpha, v8, v8, v8);
+        }
+
+        float hx = ((hue < 0) || (hue >= 360)) ? 0 : (hue / 60);
+        int sextant = (int) hx;
+        float f = hx - sextant;
+        int p = Math.round((1 - s) * v * 255);
+        int q = Math.round((1 - (s * f)) * v * 255);
+        int t = Math.round((1 - (s * (1 - f))) * v * 255);
+
+        switch (sextant) {
+            case 0:
+                return argb(alpha, v8, t, p);
+
+            case 1:
+                return argb(alpha, q, v8, p);
+
+            case 2:
+                return argb(alpha, p, v8, t);
+
+            case 3:
+                return argb(alpha, p, q, v8);
+
+            case 4:
+                return argb(alpha, t, p, v8);
+
+            default:
+                return argb(alpha, v8, p, q);
+        }
+    }
+
+    /**
+     * Draws the saturation and value gradient for a hue.  Saturation increases from left to right
+     * and value from top to bottom.
+     * @param pixels The buffer, <code>width * height</code> long
+     * @param width The width of the buffer
+     * @param height The height of the buffer
+     * @param hue The hue
+     * @param blockSize The size of the square blocks of the same color to draw: 1 for a
+     *                  full-resolution gradient, larger for quick low-resolution previews
+     * @param cancellable If not null, drawing stops when this is cancelled
+     * @return <code>true</code> if the gradient was finished
+     */
+    public static boolean renderGradient(int[] pixels, int width, int height, float hue,
+                                         int blockSize, Cancellable cancellable) {
+        for (int blockTop = 0; blockTop < height; blockTop += blockSize) {
+            if ((cancellable != null) && cancellable.isCancelled()) {
+                return false;
+            }
+
+            float value = (float) ((double) blockTop / (double) height);
+            int blockBottom = Math.min(blockTop + blockSize, height);
+
+            for (int blockLeft = 0; blockLeft < width; blockLeft += blockSize) {
+                int color = hsvToColor(0xff, hue, (float) ((double) blockLeft / (double) width),
+                        value);
+                int blockRight = Math.min(blockLeft + blockSize, width);
+
+                for (int y = blockTop; y < blockBottom; y++) {
+                    int rowStart = y * width;
+
+                    for (int x = blockLeft; x < blockRight; x++) {
+                        pixels[rowStart + x] = color;
+                    }
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Draws a hue and saturation wheel for a value.  Pixels outside the wheel are made
+     * transparent.
+     * @param pixels The buffer, as big as the table
+     * @param table The polar coordinates of the pixels
+     * @param value The value
+     * @param cancellable If not null, drawing stops when this is cancelled
+     * @return <code>true</code> if the wheel was finished
+     */
+    public static boolean renderWheel(int[] pixels, WheelTable table, float value,
+                                      Cancellable cancellable) {
+        float[] hues = table.mHues;
+        float[] saturations = table.mSaturations;
+
+        for (int y = 0; y < table.mHeight; y++) {
+            if ((cancellable != null) && cancellable.isCancelled()) {
+                return false;
+            }
+
+            int rowStart = y * table.mWidth;
+            int rowEnd = rowStart + table.mWidth;
+
+            for (int i = rowStart; i < rowEnd; i++) {
+                pixels[i] = (saturations[i] == WheelTable.OUTSIDE) ? 0 :
+                        hsvToColor(0xff, hues[i], saturations[i], value);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Draws the spectrum for the hue SeekBar.  The spectrum runs the full range of hues between the
+     * thumb offsets, from left to right for a horizontal SeekBar or from bottom to top for a
+     * vertical one, and the thumb offsets at either end are left transparent.  Each hue is
+     * worked out once: a horizontal spectrum is drawn as one row that's copied to the others, and a
+     * vertical one as rows of a single color.  Since the spectrum only changes along its length, a
+     * buffer one pixel thick is enough if the result is to be stretched.
+     * @param pixels The buffer, <code>width * height</code> long
+     * @param width The width of the SeekBar
+     * @param height The height of the SeekBar
+     * @param thumbOffset The thumb offset of the SeekBar
+     * @param isVertical If <code>true</code> the SeekBar is vertical
+     */
+    public static void renderHueStrip(int[] pixels, int width, int height, int thumbOffset,
+                                      boolean isVertical) {
+        int length = (isVertical ? height : width) - (2 * thumbOffset);
+
+        if (length <= 0) {
+            return;
+        }
+
+        float hueIncrement = (float) (360.0 / (double) length);
+
+        for (int i = 0; i < length; i++) {
+            int color = hsvToColor(0xff, i * hueIncrement, 1, 1);
+
+            if (isVertical) {
+                int y = height - thumbOffset - 1 - i;
+
+                if ((y >= 0) && (y < height)) {
+                    fillRow(pixels, width, y, 0, width, color);
+                }
+            } else {
+                int x = thumbOffset + i;
+
+                if ((x >= 0) && (x < width)) {
+                    pixels[x] = color;
+                }
+            }
+        }
+
+        if (!isVertical) {
+            // every row is the same as the first
+            for (int y = 1; y < height; y++) {
+                System.arraycopy(pixels, 0, pixels, y * width, width);
+            }
+        }
+    }
+
+    /**
+     * Draws a checkerboard: the whole buffer is filled with the background color, then a square of
+     * half the grid size is drawn in the square color at every grid point inside the given
+     * rectangle.
+     * @param pixels The buffer, <code>width * height</code> long
+     * @param width The width of the buffer
+     * @param height The height of the buffer
+     * @param left The left edge of the grid
+     * @param top The top edge of the grid
+     * @param right The right edge of the grid; no squares start at or beyond it
+     * @param bottom The bottom edge of the grid; no squares start at or beyond it
+     * @param gridSize The spacing of the grid
+     * @param squareColor The color of the squares
+     * @param backgroundColor The color of the rest of the buffer (may be transparent)
+     * @param cancellable If not null, drawing stops when this is cancelled
+     * @return <code>true</code> if the checkerboard was finished
+     */
+    public static boolean renderCheckerboard(int[] pixels, int width, int height, int left, int top,
+                                             int right, int bottom, float gridSize,
+                                             int squareColor, int backgroundColor,
+                                             Cancellable cancellable) {
+        for (int y = 0; y < height; y++) {
+            fillRow(pixels, width, y, 0, width, backgroundColor);
+        }
+
+        float squareSize = gridSize / 2;
+
+        for (float squareTop = top; squareTop < bottom; squareTop += gridSize) {
+            if ((cancellable != null) && cancellable.isCancelled()) {
+                return false;
+            }
+
+            int firstRow = Math.max(0, Math.round(squareTop));
+            int lastRow = Math.min(height, Math.round(squareTop + squareSize));
+
+            for (float squareLeft = left; squareLeft < right; squareLeft += gridSize) {
+                int firstColumn = Math.max(0, Math.round(squareLeft));
+                int lastColumn = Math.min(width, Math.round(squareLeft + squareSize));
+
+                for (int y = firstRow; y < lastRow; y++) {
+                    fillRow(pixels, width, y, firstColumn, lastColumn, squareColor);
+                }
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Draws a color over a rectangle of the buffer at every opacity, from fully transparent to
+     * fully opaque: left to right for a horizontal ramp, bottom to top for a vertical one.  The
+     * alpha of the given color is ignored.
+     * @param pixels The buffer, <code>width * height</code> long
+     * @param width The width of the buffer
+     * @param height The height of the buffer
+     * @param left The left edge of the ramp
+     * @param top The top edge of the ramp
+     * @param right The right edge of the ramp
+     * @param bottom The bottom edge of the ramp
+     * @param color The color
+     * @param isVertical If <code>true</code> the ramp runs from bottom to top
+     * @param cancellable If not null, drawing stops when this is cancelled
+     * @return <code>true</code> if the ramp was finished
+     */
+    public static boolean renderAlphaRamp(int[] pixels, int width, int height, int left, int top,
+                                          int right, int bottom, int color, boolean isVertical,
+                                          Cancellable cancellable) {
+        int length = isVertical ? (bottom - top) : (right - left);
+        int rgb = color & 0x00ffffff;
+
+        for (int i = 0; i < length; i++) {
+            if ((cancellable != null) && cancellable.isCancelled()) {
+                return false;
+            }
+
+            int alpha = (int) (i * 255f / length);
+
+            if (isVertical) {
+                blendRect(pixels, width, height, left, bottom - 1 - i, right, bottom - i,
+                        (alpha << 24) | rgb);
+            } else {
+                blendRect(pixels, width, height, left + i, top, left + i + 1, bottom,
+                        (alpha << 24) | rgb);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Draws a color over a rectangle of the buffer, blending it with what's there according to
+     * its alpha.
+     * @param pixels The buffer, <code>width * height</code> long
+     * @param width The width of the buffer
+     * @param height The height of the buffer
+     * @param left The left edge of the rectangle
+     * @param top The top edge of the rectangle
+     * @param right The right edge of the rectangle
+     * @param bottom The bottom edge of the rectangle
+     * @param color The color
+     */
+    public static void blendRect(int[] pixels, int width, int height, int left, int top, int right,
+                                 int bottom, int color) {
+        int firstColumn = Math.max(0, left);
+        int lastColumn = Math.min(width, right);
+
+        for (int y = Math.max(0, top); y < Math.min(height, bottom); y++) {
+            int rowStart = y * width;
+
+            for (int x = firstColumn; x < lastColumn; x++) {
+                pixels[rowStart + x] = blend(color, pixels[rowStart + x]);
+            }
+        }
+    }
+
+    /**
+     * Blends one non-premultiplied color over another.
+     * @param source The color on top
+     * @param destination The color underneath
+     * @return The blended color
+     */
+    public static int blend(int source, int destination) {
+        int sourceAlpha = source >>> 24;
+
+        if (sourceAlpha == 0xff) {
+            return source;
+        } else if (sourceAlpha == 0) {
+            return destination;
+        }
+
+        // the weights are scaled up by 255 to stay in integers
+        int sourceWeight = sourceAlpha * 0xff;
+        int destinationWeight = (destination >>> 24) * (0xff - sourceAlpha);
+        int totalWeight = sourceWeight + destinationWeight;
+
+        if (totalWeight == 0) {
+            return 0;
+        }
+
+        return argb((totalWeight + 127) / 0xff,
+                blendChannel(source >> 16, destination >> 16, sourceWeight, destinationWeight),
+                blendChannel(source >> 8, destination >> 8, sourceWeight, destinationWeight),
+                blendChannel(source, destination, sourceWeight, destinationWeight));
+    }
+
+    /**
+     * Blends one color channel.
+     * @param source The source color, shifted so the channel is in the low byte
+     * @param destination The destination color, shifted so the channel is in the low byte
+     * @param sourceWeight The weight of the source
+     * @param destinationWeight The weight of the destination
+     * @return The blended channel value, 0 to 255
+     */
+    private static int blendChannel(int source, int destination, int sourceWeight,
+                                    int destinationWeight) {
+        int totalWeight = sourceWeight + destinationWeight;
+        return (((source & 0xff) * sourceWeight) + ((destination & 0xff) * destinationWeight) +
+                (totalWeight / 2)) / totalWeight;
+    }
+
+    /**
+     * Fills part of a row of the buffer with one color.
+     */
+    private static void fillRow(int[] pixels, int width, int y, int fromX, int toX, int color) {
+        int rowStart = y * width;
+
+        for (int x = fromX; x < toX; x++) {
+            pixels[rowStart + x] = color;
+        }
+    }
+
+    /**
+     * Packs a color.  The components must be 0 to 255.
+     */
+    private static int argb(int alpha, int red, int green, int blue) {
+        return (alpha << 24) | (red << 16) | (green << 8) | blue;
+    }
+}
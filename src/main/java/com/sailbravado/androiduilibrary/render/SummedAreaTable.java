@@ -0,0 +1,243 @@
+package com.sailbravado.androiduilibrary.render;
+
+/**
+ * A summed-area table of an image, which gives the average color of any rectangle of the image in
+ * constant time no matter how big the rectangle is.  It's built one row of the image at a time
+ * with {@link #addSourceRow(int[])}, so the whole image never has to be held as an
+ * <code>int[]</code>.
+ * <p><p>Large images are averaged down in square blocks as they're added, so the table never has
+ * more than about {@link #MAX_CELLS} cells (16 bytes each) whatever the size of the image.  Averages
+ * of rectangles smaller than a block are then the average of the block(s) they fall in.
+ * <p><p>The sums are kept in <code>int</code>s and allowed to wrap around.  The sum of a rectangle
+ * is found by adding and subtracting four of them, which gives the right answer modulo
+ * 2<sup>32</sup>; since no rectangle of at most {@link #MAX_CELLS} cells can add up to more than
+ * that, reading the result as unsigned gives the exact sum.  This halves the memory a table of
+ * <code>long</code>s would need.
+ */
+public final class SummedAreaTable {
+    /**
+     * The most cells a table may have, per channel.  255 times this must fit in 32 bits unsigned.
+     */
+    public static final int MAX_CELLS = 1 << 20;
+
+    private final int mSourceWidth;
+    private final int mSourceHeight;
+    private final int mBlockSize;
+    /**
+     * The size of the table in cells, not counting the row and column of zeros at the top and
+     * left
+     */
+    private final int mWidth;
+    private final int mHeight;
+    /**
+     * The running sums for each channel, <code>(mWidth + 1) * (mHeight + 1)</code> long
+     */
+    private final int[] mAlphaSums;
+    private final int[] mRedSums;
+    private final int[] mGreenSums;
+    private final int[] mBlueSums;
+    /**
+     * For each channel, the totals of the block row being added
+     */
+    private final int[] mAlphaBlockRow;
+    private final int[] mRedBlockRow;
+    private final int[] mGreenBlockRow;
+    private final int[] mBlueBlockRow;
+    private int mSourceRowsAdded = 0;
+    private int mRowsAdded = 0;
+
+    /**
+     * Creates an empty table for an image.
+     * @param sourceWidth The width of the image
+     * @param sourceHeight The height of the image
+     */
+    public SummedAreaTable(int sourceWidth, int sourceHeight) {
+        if ((sourceWidth <= 0) || (sourceHeight <= 0)) {
+            throw new IllegalArgumentException("SummedAreaTable: the image is " + sourceWidth +
+                    "x" + sourceHeight);
+        }
+
+        mSourceWidth = sourceWidth;
+        mSourceHeight = sourceHeight;
+        mBlockSize = blockSizeFor(sourceWidth, sourceHeight);
+        mWidth = (sourceWidth + mBlockSize - 1) / mBlockSize;
+        mHeight = (sourceHeight + mBlockSize - 1) / mBlockSize;
+
+        int size = (mWidth + 1) * (mHeight + 1);
+        mAlphaSums = new int[size];
+        mRedSums = new int[size];
+        mGreenSums = new int[size];
+        mBlueSums = new int[size];
+        mAlphaBlockRow = new int[mWidth];
+        mRedBlockRow = new int[mWidth];
+        mGreenBlockRow = new int[mWidth];
+        mBlueBlockRow = new int[mWidth];
+    }
+
+    /**
+     * Finds the smallest block size that keeps the table for an image within
+     * {@link #MAX_CELLS}.
+     * @param sourceWidth The width of the image
+     * @param sourceHeight The height of the image
+     * @return The length of a side of a block, in image pixels
+     */
+    public static int blockSizeFor(int sourceWidth, int sourceHeight) {
+        int blockSize = 1;
+
+        while ((long) ((sourceWidth + blockSize - 1) / blockSize) *
+                ((sourceHeight + blockSize - 1) / blockSize) > MAX_CELLS) {
+            blockSize++;
+        }
+
+        return blockSize;
+    }
+
+    /**
+     * @return The width of the image
+     */
+    public int getSourceWidth() {
+        return mSourceWidth;
+    }
+
+    /**
+     * @return The height of the image
+     */
+    public int getSourceHeight() {
+        return mSourceHeight;
+    }
+
+    /**
+     * @return <code>true</code> once every row of the image has been added
+     */
+    public boolean isComplete() {
+        return mSourceRowsAdded == mSourceHeight;
+    }
+
+    /**
+     * Adds the next row of the image, starting with the top one.
+     * @param row The pixels of the row in AARRGGBB format, at least as long as the image is wide
+     */
+    public void addSourceRow(int[] row) {
+        if (isComplete()) {
+            throw new IllegalStateException("SummedAreaTable.addSourceRow(): all " +
+                    mSourceHeight + " rows have already been added");
+        }
+
+        for (int x = 0; x < mSourceWidth; x++) {
+            int color = row[x];
+            int cell = x / mBlockSize;
+            mAlphaBlockRow[cell] += color >>> 24;
+            mRedBlockRow[cell] += (color >> 16) & 0xff;
+            mGreenBlockRow[cell] += (color >> 8) & 0xff;
+            mBlueBlockRow[cell] += color & 0xff;
+        }
+
+        mSourceRowsAdded++;
+
+        if ((mSourceRowsAdded % mBlockSize == 0) || isComplete()) {
+            addBlockRow();
+        }
+    }
+
+    /**
+     * Finds the average color of a rectangle of the image.  The rectangle is clipped to the image.
+     * @param left The left edge of the rectangle
+     * @param top The top edge of the rectangle
+     * @param right The right edge of the rectangle (exclusive)
+     * @param bottom The bottom edge of the rectangle (exclusive)
+     * @return The average color in AARRGGBB format, or 0 if the rectangle is outside the image or
+     * the rows it covers haven't been added yet
+     */
+    public int average(int left, int top, int right, int bottom) {
+        // convert to cells, rounding outwards so that a rectangle smaller than a block still
+        // covers one
+        int cellLeft = Math.max(0, left / mBlockSize);
+        int cellTop = Math.max(0, top / mBlockSize);
+        int cellRight = Math.min(mWidth, (right + mBlockSize - 1) / mBlockSize);
+        int cellBottom = Math.min(mRowsAdded, (bottom + mBlockSize - 1) / mBlockSize);
+
+        if ((cellLeft >= cellRight) || (cellTop >= cellBottom)) {
+            return 0;
+        }
+
+        long count = (long) (cellRight - cellLeft) * (cellBottom - cellTop);
+        int topLeft = (cellTop * (mWidth + 1)) + cellLeft;
+        int topRight = (cellTop * (mWidth + 1)) + cellRight;
+        int bottomLeft = (cellBottom * (mWidth + 1)) + cellLeft;
+        int bottomRight = (cellBottom * (mWidth + 1)) + cellRight;
+
+        return (averageOf(mAlphaSums, topLeft, topRight, bottomLeft, bottomRight, count) << 24) |
+                (averageOf(mRedSums, topLeft, topRight, bottomLeft, bottomRight, count) << 16) |
+                (averageOf(mGreenSums, topLeft, topRight, bottomLeft, bottomRight, count) << 8) |
+                averageOf(mBlueSums, topLeft, topRight, bottomLeft, bottomRight, count);
+    }
+
+    /**
+     * Finds the average color of the square around a point of the image.
+     * @param x The x coordinate of the point
+     * @param y The y coordinate of the point
+     * @param radius How far the square reaches from the point; 0 for just the point
+     * @return The average color in AARRGGBB format, or 0 if the square is outside the image or the
+     * rows it covers haven't been added yet
+     */
+    public int averageAround(int x, int y, int radius) {
+        return average(x - radius, y - radius, x + radius + 1, y + radius + 1);
+    }
+
+    /**
+     * Turns the block totals gathered by {@link #addSourceRow(int[])} into the next row of the
+     * table.
+     */
+    private void addBlockRow() {
+        int blockHeight = mSourceRowsAdded - (mRowsAdded * mBlockSize);
+        int rowStart = (mRowsAdded + 1) * (mWidth + 1);
+        int previousRowStart = mRowsAdded * (mWidth + 1);
+        int alphaSum = 0;
+        int redSum = 0;
+        int greenSum = 0;
+        int blueSum = 0;
+
+        for (int cell = 0; cell < mWidth; cell++) {
+            int blockWidth = Math.min(mBlockSize, mSourceWidth - (cell * mBlockSize));
+            int blockPixels = blockWidth * blockHeight;
+
+            // each cell holds the rounded average of its block, so all cells weigh the same
+            alphaSum += (mAlphaBlockRow[cell] + (blockPixels / 2)) / blockPixels;
+            redSum += (mRedBlockRow[cell] + (blockPixels / 2)) / blockPixels;
+            greenSum += (mGreenBlockRow[cell] + (blockPixels / 2)) / blockPixels;
+            blueSum += (mBlueBlockRow[cell] + (blockPixels / 2)) / blockPixels;
+
+            int index = rowStart + cell + 1;
+            int above = previousRowStart + cell + 1;
+            mAlphaSums[index] = mAlphaSums[above] + alphaSum;
+            mRedSums[index] = mRedSums[above] + redSum;
+            mGreenSums[index] = mGreenSums[above] + greenSum;
+            mBlueSums[index] = mBlueSums[above] + blueSum;
+
+            mAlphaBlockRow[cell] = 0;
+            mRedBlockRow[cell] = 0;
+            mGreenBlockRow[cell] = 0;
+            mBlueBlockRow[cell] = 0;
+        }
+
+        mRowsAdded++;
+    }
+
+    /**
+     * Finds the average of one channel over a rectangle of cells.
+     * @param sums The running sums for the channel
+     * @param topLeft The index of the sum above and to the left of the rectangle
+     * @param topRight The index of the sum above the right edge of the rectangle
+     * @param bottomLeft The index of the sum to the left of the bottom edge of the rectangle
+     * @param bottomRight The index of the sum at the bottom right of the rectangle
+     * @param count The number of cells in the rectangle
+     * @return The rounded average, 0 to 255
+     */
+    private static int averageOf(int[] sums, int topLeft, int topRight, int bottomLeft,
+                                 int bottomRight, long count) {
+        // the sums may have wrapped around, but the difference is exact when read as unsigned
+        long sum = (sums[bottomRight] - sums[topRight] - sums[bottomLeft] + sums[topLeft]) &
+                0xffffffffL;
+        return (int) ((sum + (count / 2)) / count);
+    }
+}
@@ -0,0 +1,100 @@
+package com.sailbravado.androiduilibrary.render;
+
+/**
+ * The polar coordinates of every pixel of a hue/saturation wheel of one size, worked out once so
+ * that {@link PixelRenderer#renderWheel(int[], WheelTable, float, Cancellable)} can draw the wheel
+ * for any value without an <code>atan2()</code> or <code>sqrt()</code> per pixel.  Hue runs
+ * counterclockwise from red at the right-hand side of the wheel, and saturation runs from 0 at the
+ * center to 1 at the rim.  The wheel is the largest circle centered in the table.
+ * <p><p>Tables are immutable.  The most recently built one is kept, since the same size is usually
+ * asked for again and again.
+ */
+public final class WheelTable {
+    /**
+     * The saturation of the pixels outside the wheel
+     */
+    static final float OUTSIDE = -1;
+
+    /**
+     * The most recently built table, or <code>null</code>
+     */
+    private static volatile WheelTable sLastTable = null;
+
+    final int mWidth;
+    final int mHeight;
+    /**
+     * For each pixel, its hue in degrees
+     */
+    final float[] mHues;
+    /**
+     * For each pixel, its saturation, or {@link #OUTSIDE}
+     */
+    final float[] mSaturations;
+
+    /**
+     * Builds a table.
+     */
+    private WheelTable(int width, int height) {
+        mWidth = width;
+        mHeight = height;
+        mHues = new float[width * height];
+        mSaturations = new float[width * height];
+
+        float centerX = width / 2f;
+        float centerY = height / 2f;
+        float radius = Math.min(width, height) / 2f;
+
+        for (int y = 0; y < height; y++) {
+            // measure from pixel centers; y is flipped so that hue increases counterclockwise
+            float dy = centerY - (y + 0.5f);
+
+            for (int x = 0; x < width; x++) {
+                float dx = (x + 0.5f) - centerX;
+                int index = (y * width) + x;
+                float distance = (float) Math.sqrt((dx * dx) + (dy * dy));
+
+                if (distance > radius) {
+                    mSaturations[index] = OUTSIDE;
+                    continue;
+                }
+
+                float hue = (float) Math.toDegrees(Math.atan2(dy, dx));
+                mHues[index] = (hue < 0) ? (hue + 360) : hue;
+                mSaturations[index] = distance / radius;
+            }
+        }
+    }
+
+    /**
+     * Gets the table for a size, building it if it isn't the size most recently asked for.
+     * @param width The width of the wheel's image
+     * @param height The height of the wheel's image
+     * @return The table
+     */
+    public static WheelTable forSize(int width, int height) {
+        WheelTable table = sLastTable;
+
+        // no lock, so a render thread wanting another size isn't held up by this build.  two
+        // threads may build the same size at once, which is wasteful but harmless
+        if ((table == null) || (table.mWidth != width) || (table.mHeight != height)) {
+            table = new WheelTable(width, height);
+            sLastTable = table;
+        }
+
+        return table;
+    }
+
+    /**
+     * @return The width of the wheel's image
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * @return The height of the wheel's image
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+}